@@ -0,0 +1,53 @@
+package nl.stackftp.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ThreadFactories {
+
+    /**
+     * The ThreadFactories constructor.
+     * Only static methods, so no instances.
+     */
+    private ThreadFactories() {
+    }
+
+    /**
+     * Create a factory for named daemon platform threads.
+     *
+     * @param prefix The thread name prefix, a counter is appended.
+     * @return The thread factory.
+     */
+    public static ThreadFactory platform(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    /**
+     * Create a factory for named virtual threads.
+     * Virtual threads are only available on Java 21 and newer,
+     * the application is compiled for older versions so they're created by reflection.
+     *
+     * @param prefix The thread name prefix, a counter is appended.
+     * @return The thread factory or null when virtual threads aren't supported by this runtime.
+     */
+    public static ThreadFactory virtual(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            Method factory = builderClass.getMethod("factory");
+
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package nl.stackftp.configuration;
 
 import nl.stackftp.ftp.StackUser;
+import nl.stackftp.webdav.WebdavClientFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
@@ -8,6 +10,12 @@ import org.springframework.context.annotation.Scope;
 @Configuration
 public class AppConfiguration {
 
+    /**
+     * The Webdav client factory.
+     */
+    @Autowired
+    private WebdavClientFactory webdavClientFactory;
+
     /**
      * Create a spring managed instance of StackUser.
      *
@@ -18,6 +26,6 @@ public class AppConfiguration {
     @Bean
     @Scope("prototype")
     public StackUser stackUser(String username, String password) {
-        return new StackUser(username, password);
+        return new StackUser(username, password, this.webdavClientFactory);
     }
 }
@@ -0,0 +1,125 @@
+package nl.stackftp.ftp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+final class LoginThrottle {
+
+    /**
+     * The token buckets by username.
+     */
+    private final Cache<String, TokenBucket> userBuckets;
+
+    /**
+     * The token buckets by client address.
+     */
+    private final Cache<InetAddress, TokenBucket> addressBuckets;
+
+    /**
+     * The allowed login attempts per minute of an username. 0 disables the limit.
+     */
+    private final int userRate;
+
+    /**
+     * The allowed login attempts per minute of a client address. 0 disables the limit.
+     */
+    private final int addressRate;
+
+    /**
+     * The LoginThrottle constructor.
+     * Every username and client address has a token bucket that holds a minute of attempts and refills continuously.
+     * An idle bucket is full again after a minute, so buckets are forgotten after a minute without attempts.
+     *
+     * @param userRate The allowed login attempts per minute of an username.
+     * @param addressRate The allowed login attempts per minute of a client address.
+     * @param maxEntries The maximum amount of remembered usernames and addresses.
+     */
+    LoginThrottle(int userRate, int addressRate, int maxEntries) {
+        this.userRate = Math.max(0, userRate);
+        this.addressRate = Math.max(0, addressRate);
+        this.userBuckets = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(1, TimeUnit.MINUTES)
+                .build();
+        this.addressBuckets = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Take a login attempt of an user.
+     *
+     * @param username The username.
+     * @param address The client address, null when unknown.
+     * @return True when the attempt is allowed.
+     */
+    boolean tryAcquire(String username, InetAddress address) {
+        // Check the address first, so a scanner trying many names doesn't use up the attempts of real users.
+        if (this.addressRate > 0 && address != null
+                && !this.addressBuckets.get(address, key -> new TokenBucket(this.addressRate)).tryAcquire()) {
+            return false;
+        }
+
+        return this.userRate == 0
+                || this.userBuckets.get(username, key -> new TokenBucket(this.userRate)).tryAcquire();
+    }
+
+    private static final class TokenBucket {
+
+        /**
+         * The maximum amount of tokens.
+         */
+        private final int capacity;
+
+        /**
+         * The nanoseconds it takes to add a token.
+         */
+        private final long refillNanos;
+
+        /**
+         * The amount of tokens.
+         */
+        private double tokens;
+
+        /**
+         * The System.nanoTime() of the last refill.
+         */
+        private long refilled;
+
+        /**
+         * The TokenBucket constructor, the bucket starts full.
+         *
+         * @param rate The amount of tokens per minute.
+         */
+        private TokenBucket(int rate) {
+            this.capacity = rate;
+            this.refillNanos = TimeUnit.MINUTES.toNanos(1) / rate;
+            this.tokens = rate;
+            this.refilled = System.nanoTime();
+        }
+
+        /**
+         * Take a token.
+         *
+         * @return True when a token was available.
+         */
+        private synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+
+            this.tokens = Math.min(this.capacity, this.tokens + (double) (now - this.refilled) / this.refillNanos);
+            this.refilled = now;
+
+            if (this.tokens < 1) {
+                return false;
+            }
+
+            this.tokens--;
+
+            return true;
+        }
+    }
+}
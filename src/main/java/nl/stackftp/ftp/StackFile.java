@@ -1,6 +1,6 @@
 package nl.stackftp.ftp;
 
-import com.github.sardine.impl.SardineException;
+import nl.stackftp.webdav.FileMetadata;
 import nl.stackftp.webdav.WebdavClient;
 import org.apache.ftpserver.ftplet.FtpFile;
 
@@ -22,73 +22,54 @@ public class StackFile implements FtpFile {
     private String path;
 
     /**
-     * Does this file exists.
+     * The metadata of this file.
+     * Null until it's needed, so creating a file doesn't do any Webdav call.
      */
-    private boolean exists;
-
-    /**
-     * Is the file a directory.
-     */
-    private Boolean isDirectory;
-
-    /**
-     * Size of the file.
-     */
-    private long size = 0;
-
-    /**
-     * The last modified date of this file.
-     */
-    private long lastModified = 0;
+    private FileMetadata metadata;
 
     /**
      * The StackFile constructor.
+     * The metadata is fetched when it's first needed.
      *
      * @param path The file path. Must be absolute!
      * @param stackUser The file user.
      */
-    public StackFile(String path, StackUser stackUser) throws IOException {
-        WebdavClient webdavClient = stackUser.getWebdavClient();
-
+    public StackFile(String path, StackUser stackUser) {
         this.stackUser = stackUser;
         this.path = path;
-
-        try {
-            this.isDirectory = webdavClient.isDirectory(this.path);
-            this.exists = true;
-        } catch (SardineException ex) {
-            if (ex.getStatusCode() != 404) {
-                throw ex;
-            }
-            this.exists = false;
-        }
     }
 
     /**
      * The StackFile constructor.
+     * Uses already fetched metadata, so no Webdav call is done.
      *
      * @param path The file path. Must be absolute!
      * @param stackUser The file user.
-     * @param size The file size.
+     * @param metadata The file metadata.
      */
-    private StackFile(String path, StackUser stackUser, long size) throws IOException {
+    public StackFile(String path, StackUser stackUser, FileMetadata metadata) {
         this(path, stackUser);
-
-        // To prevent directories not appearing set the minimum size to 0.
-        this.size = Math.max(0, size);
+        this.metadata = metadata;
     }
 
     /**
-     * The StackFile constructor.
+     * Get the metadata of this file, fetching it on first use.
+     * Only a 404 means the file doesn't exist. Other failures are thrown and not remembered,
+     * so the ftp server replies with an error instead of acting on a file that seems missing.
      *
-     * @param path The file path. Must be absolute!
-     * @param stackUser The file user.
-     * @param size The file size.
-     * @param lastModified The last modified date.
+     * @return The metadata.
+     * @throws UncheckedIOException Thrown when fetching the metadata failed.
      */
-    public StackFile(String path, StackUser stackUser, long size, long lastModified) throws IOException {
-        this(path, stackUser, size);
-        this.lastModified = lastModified;
+    private FileMetadata getMetadata() {
+        if (this.metadata == null) {
+            try {
+                this.metadata = this.stackUser.getWebdavClient().getMetadata(this.path);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Getting the metadata of " + this.path + " failed", ex);
+            }
+        }
+
+        return this.metadata;
     }
 
     /**
@@ -130,7 +111,7 @@ public class StackFile implements FtpFile {
      * @return True when directory.
      */
     public boolean isDirectory() {
-        return this.isDirectory != null && this.isDirectory;
+        return this.getMetadata().exists() && this.getMetadata().isDirectory();
     }
 
     /**
@@ -139,7 +120,7 @@ public class StackFile implements FtpFile {
      * @return True when file.
      */
     public boolean isFile() {
-        return this.isDirectory != null && !this.isDirectory;
+        return this.getMetadata().exists() && !this.getMetadata().isDirectory();
     }
 
     /**
@@ -148,7 +129,7 @@ public class StackFile implements FtpFile {
      * @return True when exists.
      */
     public boolean doesExist() {
-        return this.exists;
+        return this.getMetadata().exists();
     }
 
     /**
@@ -173,12 +154,13 @@ public class StackFile implements FtpFile {
 
     /**
      * Is this file removable.
+     * Doesn't need the metadata, deleting a file that doesn't exist fails.
      *
      * @return True when removable.
      */
     public boolean isRemovable() {
-        // All existing files are removable except for home directory.
-        return this.exists && !this.path.equals(this.stackUser.getHomeDirectory());
+        // All files are removable except for home directory.
+        return !this.path.equals(this.stackUser.getHomeDirectory());
     }
 
     /**
@@ -214,7 +196,7 @@ public class StackFile implements FtpFile {
      * @return The last modified date of this file.
      */
     public long getLastModified() {
-        return this.lastModified;
+        return this.getMetadata().getLastModified();
     }
 
     /**
@@ -234,7 +216,7 @@ public class StackFile implements FtpFile {
      * @return Size of this file.
      */
     public long getSize() {
-        return this.size;
+        return this.getMetadata().getSize();
     }
 
     /**
@@ -258,11 +240,31 @@ public class StackFile implements FtpFile {
             webdavClient.mkdir(this.path);
         } catch (IOException ex) {
             return false;
+        } finally {
+            // The remote file has changed, so fetch the metadata again when needed.
+            this.metadata = null;
         }
 
         return true;
     }
 
+    /**
+     * Create this directory and all missing parent directories.
+     * The missing parents are probed at the same time.
+     *
+     * @return The amount of created directories.
+     * @throws IOException Thrown when creating a directory failed or a path is a file.
+     */
+    public int mkdirs() throws IOException {
+        WebdavClient webdavClient = this.stackUser.getWebdavClient();
+
+        try {
+            return webdavClient.mkdirs(this.path);
+        } finally {
+            this.metadata = null;
+        }
+    }
+
     /**
      * Delete this file.
      *
@@ -275,6 +277,8 @@ public class StackFile implements FtpFile {
             webdavClient.delete(this.path);
         } catch (IOException ex) {
             return false;
+        } finally {
+            this.metadata = null;
         }
 
         return true;
@@ -293,6 +297,8 @@ public class StackFile implements FtpFile {
             webdavClient.move(this.path, ftpFile.getAbsolutePath());
         } catch (IOException ex) {
             return false;
+        } finally {
+            this.metadata = null;
         }
 
         return true;
@@ -321,19 +327,9 @@ public class StackFile implements FtpFile {
      * @throws IOException Thrown on upload fail.
      */
     public OutputStream createOutputStream(long l) throws IOException {
-        PipedOutputStream outputStream = new PipedOutputStream();
-        PipedInputStream inputStream = new PipedInputStream(outputStream);
-
-        // Do the HTTP call in a thread so the application can read and write asynchronously.
-        new Thread(() -> {
-            WebdavClient webdavClient = stackUser.getWebdavClient();
-
-            try {
-                webdavClient.put(path, inputStream);
-            } catch (IOException ex) { }
-        }).start();
+        WebdavClient webdavClient = this.stackUser.getWebdavClient();
 
-        return outputStream;
+        return webdavClient.upload(this.path, l);
     }
 
     /**
@@ -346,7 +342,25 @@ public class StackFile implements FtpFile {
     public InputStream createInputStream(long l) throws IOException {
         WebdavClient webdavClient = this.stackUser.getWebdavClient();
 
-        return webdavClient.get(this.path);
+        return webdavClient.download(this.path, l, this.getSize(), this.getEtag());
+    }
+
+    /**
+     * Get the etag of this file.
+     *
+     * @return The etag or null when unknown.
+     */
+    public String getEtag() {
+        return this.getMetadata().getEtag();
+    }
+
+    /**
+     * Get the media type of this file.
+     *
+     * @return The media type or null when unknown.
+     */
+    public String getContentType() {
+        return this.getMetadata().getContentType();
     }
 
     /**
@@ -40,11 +40,7 @@ public class StackFileSystemView implements FileSystemView {
      * @return The home directory.
      */
     public FtpFile getHomeDirectory() throws FtpException {
-        try {
-            return new StackFile("/", this.stackUser);
-        } catch (IOException ex) {
-            throw new FtpException("Could not get home directory");
-        }
+        return new StackFile("/", this.stackUser);
     }
 
     /**
@@ -53,11 +49,7 @@ public class StackFileSystemView implements FileSystemView {
      * @return The current working directory.
      */
     public FtpFile getWorkingDirectory() throws FtpException {
-        try {
-            return new StackFile(this.workingDirectory, this.stackUser);
-        } catch (IOException ex) {
-            throw new FtpException("Could not get working directory");
-        }
+        return new StackFile(this.workingDirectory, this.stackUser);
     }
 
     /**
@@ -94,11 +86,7 @@ public class StackFileSystemView implements FileSystemView {
     public FtpFile getFile(String path) throws FtpException {
         path = this.formatFile(path);
 
-        try {
-            return new StackFile(path, this.stackUser);
-        } catch (IOException ex) {
-            throw new FtpException("Could not get file");
-        }
+        return new StackFile(path, this.stackUser);
     }
 
     /**
@@ -112,8 +100,10 @@ public class StackFileSystemView implements FileSystemView {
 
     /**
      * Dispose FileSystemView.
+     * Called when the session ends.
      */
     public void dispose() {
+        this.stackUser.endSession();
     }
 
     /**
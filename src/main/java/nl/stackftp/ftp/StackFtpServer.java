@@ -1,7 +1,23 @@
 package nl.stackftp.ftp;
 
+import nl.stackftp.ftp.command.DuCommand;
+import nl.stackftp.ftp.command.FeatCommand;
+import nl.stackftp.ftp.command.MkdirsCommand;
+import nl.stackftp.ftp.command.MlstCommand;
+import nl.stackftp.ftp.command.MlstFileFormater;
+import nl.stackftp.ftp.command.OptsMlstCommand;
+import nl.stackftp.ftp.command.StreamingListCommand;
+import nl.stackftp.ftp.command.RmtreeCommand;
+import nl.stackftp.ftp.command.StoreCommand;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.command.CommandFactory;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.command.impl.LIST;
+import org.apache.ftpserver.command.impl.MLSD;
+import org.apache.ftpserver.command.impl.NLST;
+import org.apache.ftpserver.command.impl.listing.LISTFileFormater;
+import org.apache.ftpserver.command.impl.listing.NLSTFileFormater;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.listener.ListenerFactory;
 import org.apache.ftpserver.ssl.SslConfiguration;
@@ -98,6 +114,7 @@ public class StackFtpServer {
 
         serverFactory.setUserManager(this.applicationContext.getBean(StackUserManager.class));
         serverFactory.setFileSystem(this.applicationContext.getBean(StackFileSystemFactory.class));
+        serverFactory.setCommandFactory(this.getCommandFactory());
 
         FtpServer ftpServer = serverFactory.createServer();
 
@@ -112,6 +129,35 @@ public class StackFtpServer {
         serverThread.start();
     }
 
+    /**
+     * Create the ftp commands, the default commands with streaming listings, uploads that are aborted when the
+     * transfer fails and the Webdav specific SITE commands.
+     * The default SITE command runs the command registered as SITE_name.
+     *
+     * @return The CommandFactory.
+     */
+    private CommandFactory getCommandFactory() {
+        CommandFactoryFactory commandFactoryFactory = new CommandFactoryFactory();
+        commandFactoryFactory.addCommand("SITE_RMTREE", new RmtreeCommand());
+        commandFactoryFactory.addCommand("SITE_DU", new DuCommand());
+        commandFactoryFactory.addCommand("SITE_MKDIRS", new MkdirsCommand());
+        LISTFileFormater listFileFormater = new LISTFileFormater();
+        NLSTFileFormater nlstFileFormater = new NLSTFileFormater();
+        commandFactoryFactory.addCommand("LIST", new StreamingListCommand("LIST", new LIST(),
+                session -> listFileFormater));
+        commandFactoryFactory.addCommand("NLST", new StreamingListCommand("NLST", new NLST(),
+                session -> nlstFileFormater));
+        commandFactoryFactory.addCommand("MLSD", new StreamingListCommand("MLSD", new MLSD(),
+                MlstFileFormater::forSession));
+        commandFactoryFactory.addCommand("MLST", new MlstCommand());
+        commandFactoryFactory.addCommand("OPTS_MLST", new OptsMlstCommand());
+        commandFactoryFactory.addCommand("FEAT", new FeatCommand());
+        commandFactoryFactory.addCommand("STOR", new StoreCommand("STOR", false));
+        commandFactoryFactory.addCommand("APPE", new StoreCommand("APPE", true));
+
+        return commandFactoryFactory.createCommandFactory();
+    }
+
     /**
      * Load the SslConfiguration for the application properties.
      *
@@ -1,6 +1,7 @@
 package nl.stackftp.ftp;
 
 import nl.stackftp.webdav.WebdavClient;
+import nl.stackftp.webdav.WebdavClientFactory;
 import org.apache.ftpserver.ftplet.*;
 import org.springframework.beans.factory.annotation.Value;
 
@@ -35,19 +36,30 @@ public class StackUser implements User {
      */
     private WebdavClient webdavClient;
 
+    /**
+     * The amount of open sessions of this user.
+     */
+    private int sessions = 0;
+
+    /**
+     * Is this user removed from the user cache.
+     */
+    private boolean evicted = false;
+
     /**
      * The StackUser constructor.
      *
      * @param name The user name. Also contains url.
      * @param password The user's password.
+     * @param webdavClientFactory The factory creating the user's Webdav client.
      */
-    public StackUser(String name, String password) {
+    public StackUser(String name, String password, WebdavClientFactory webdavClientFactory) {
         int separatorIndex = name.lastIndexOf('@');
 
         this.name = name.substring(0, separatorIndex);
         this.url = name.substring((separatorIndex + 1), name.length());
         this.password = password;
-        this.webdavClient = new WebdavClient(this);
+        this.webdavClient = webdavClientFactory.create(this);
     }
 
     /**
@@ -137,6 +149,7 @@ public class StackUser implements User {
 
     /**
      * Get the FileSystemView of this user.
+     * The session has already been started when the user was authenticated.
      *
      * @return The FileSystemView of this user.
      */
@@ -144,6 +157,56 @@ public class StackUser implements User {
         return new StackFileSystemView(this);
     }
 
+    /**
+     * Start a session of this user.
+     * Done while authenticating, so the Webdav client can't be closed before the session gets its FileSystemView.
+     *
+     * @return True when started, false when this user has been removed from the user cache.
+     */
+    synchronized boolean startSession() {
+        if (this.evicted) {
+            return false;
+        }
+
+        this.sessions++;
+
+        return true;
+    }
+
+    /**
+     * End a session of this user.
+     * Called when the FileSystemView of the session is disposed.
+     */
+    void endSession() {
+        boolean close;
+
+        synchronized (this) {
+            this.sessions--;
+            close = this.evicted && this.sessions == 0;
+        }
+
+        if (close) {
+            this.webdavClient.close();
+        }
+    }
+
+    /**
+     * Mark this user as removed from the user cache.
+     * The Webdav client is closed now when there are no open sessions, otherwise after the last session.
+     */
+    void evict() {
+        boolean close;
+
+        synchronized (this) {
+            this.evicted = true;
+            close = this.sessions == 0;
+        }
+
+        if (close) {
+            this.webdavClient.close();
+        }
+    }
+
     /**
      * Get a Webdav client with the credentials of this user.
      *
@@ -2,6 +2,7 @@ package nl.stackftp.ftp;
 
 import org.apache.ftpserver.ftplet.*;
 import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.ftpserver.usermanager.impl.UserMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
@@ -78,7 +79,10 @@ public class StackUserManager implements UserManager {
             // Cast the object so the username and password are readable.
             UsernamePasswordAuthentication userAuthentication = (UsernamePasswordAuthentication) authentication;
 
-            return this.userService.authenticate(userAuthentication.getUsername(), userAuthentication.getPassword());
+            UserMetadata userMetadata = userAuthentication.getUserMetadata();
+
+            return this.userService.authenticate(userAuthentication.getUsername(), userAuthentication.getPassword(),
+                    userMetadata == null ? null : userMetadata.getInetAddress());
         } catch (ClassCastException ex) {
             throw new AuthenticationFailedException("Please provide a username and password");
         } catch (FtpException ex) {
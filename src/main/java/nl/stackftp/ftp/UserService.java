@@ -1,50 +1,348 @@
 package nl.stackftp.ftp;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import nl.stackftp.concurrent.ThreadFactories;
+import org.apache.ftpserver.ftplet.AuthenticationFailedException;
 import org.apache.ftpserver.ftplet.FtpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 @Service
 public class UserService {
 
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(UserService.class);
+
     /**
      * The application context.
      */
     @Autowired
     protected ApplicationContext applicationContext;
 
+    /**
+     * The maximum amount of cached users.
+     */
+    @Value("#{environment.FTP_AUTH_CACHE_MAX_SIZE?:1000}")
+    private int authCacheMaxSize;
+
+    /**
+     * The maximum amount of seconds an user is cached after logging in.
+     */
+    @Value("#{environment.FTP_AUTH_CACHE_TTL?:3600}")
+    private int authCacheTtl;
+
+    /**
+     * The amount of seconds an user stays cached without logging in.
+     */
+    @Value("#{environment.FTP_AUTH_CACHE_IDLE?:900}")
+    private int authCacheIdle;
+
+    /**
+     * The amount of seconds between logging the user cache statistics. 0 disables it.
+     */
+    @Value("#{environment.FTP_AUTH_CACHE_STATS_INTERVAL?:3600}")
+    private int authCacheStatsInterval;
+
+    /**
+     * The amount of seconds a failed login is remembered. 0 disables it.
+     */
+    @Value("#{environment.FTP_AUTH_FAILURE_CACHE_TTL?:30}")
+    private int authFailureCacheTtl;
+
+    /**
+     * The allowed login attempts per minute of an username. 0 disables the limit.
+     */
+    @Value("#{environment.FTP_LOGIN_RATE_PER_USER?:10}")
+    private int loginRatePerUser;
+
+    /**
+     * The allowed login attempts per minute of a client address. 0 disables the limit.
+     */
+    @Value("#{environment.FTP_LOGIN_RATE_PER_ADDRESS?:60}")
+    private int loginRatePerAddress;
+
+    /**
+     * The authenticated users by username and password hash.
+     */
+    private Cache<String, StackUser> users;
+
+    /**
+     * The username and password hashes of failed logins.
+     */
+    private Cache<String, Boolean> failedLogins;
+
+    /**
+     * Limits the logins checked with the Webdav server.
+     */
+    private LoginThrottle loginThrottle;
+
+    /**
+     * The running logins by cache key.
+     * Concurrent logins with the same credentials wait for the running login instead of doing their own.
+     */
+    private final ConcurrentMap<String, CompletableFuture<StackUser>> runningLogins = new ConcurrentHashMap<>();
+
+    /**
+     * The salt of the password hashes, random for every run.
+     */
+    private final byte[] salt = new byte[16];
+
+    /**
+     * Logs the user cache statistics periodically, null when disabled.
+     */
+    private ScheduledExecutorService statsLogger;
+
+    /**
+     * Create the user cache.
+     */
+    @PostConstruct
+    public void init() {
+        new SecureRandom().nextBytes(this.salt);
+
+        this.users = Caffeine.newBuilder()
+                .maximumSize(this.authCacheMaxSize)
+                .expireAfterWrite(this.authCacheTtl, TimeUnit.SECONDS)
+                .expireAfterAccess(this.authCacheIdle, TimeUnit.SECONDS)
+                .recordStats()
+                .removalListener(this::onRemoval)
+                .build();
+        this.failedLogins = Caffeine.newBuilder()
+                .maximumSize(this.authFailureCacheTtl > 0 ? this.authCacheMaxSize : 0)
+                .expireAfterWrite(this.authFailureCacheTtl, TimeUnit.SECONDS)
+                .build();
+        this.loginThrottle = new LoginThrottle(this.loginRatePerUser, this.loginRatePerAddress,
+                this.authCacheMaxSize);
+
+        if (this.authCacheStatsInterval > 0) {
+            this.statsLogger = Executors.newSingleThreadScheduledExecutor(
+                    ThreadFactories.platform("auth-cache-stats-"));
+            this.statsLogger.scheduleWithFixedDelay(this::logCacheStats, this.authCacheStatsInterval,
+                    this.authCacheStatsInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop logging the user cache statistics.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (this.statsLogger != null) {
+            this.statsLogger.shutdownNow();
+        }
+    }
+
     /**
      * Authenticate an user by username and password.
      *
+     * Failed logins and logins above the rate limits are rejected without asking the Webdav server.
+     * A session of the returned user is started, it ends when the FileSystemView of the session is disposed.
+     *
      * @param username The username.
      * @param password The password.
+     * @param address The client address, null when unknown.
      * @return The StackUser object.
      * @throws FtpException Thrown when authenticating failed.
      */
-    @Cacheable("authenticate")
-    public StackUser authenticate(String username, String password) throws FtpException {
+    public StackUser authenticate(String username, String password, InetAddress address) throws FtpException {
         if (!this.checkName(username)) {
             throw new FtpException("Name not correct");
         }
 
+        String cacheKey = this.getCacheKey(username, password);
+        StackUser stackUser = this.users.getIfPresent(cacheKey);
+
+        // An user that has just been removed from the cache can't start a session anymore, so login again.
+        if (stackUser != null && stackUser.startSession()) {
+            return stackUser;
+        }
+
+        if (this.failedLogins.getIfPresent(cacheKey) != null) {
+            throw new AuthenticationFailedException("Username or password wrong");
+        }
+
+        CompletableFuture<StackUser> login = new CompletableFuture<>();
+        CompletableFuture<StackUser> runningLogin = this.runningLogins.putIfAbsent(cacheKey, login);
+
+        if (runningLogin != null) {
+            stackUser = this.awaitLogin(runningLogin);
+
+            return stackUser.startSession() ? stackUser : this.authenticate(username, password, address);
+        }
+
+        try {
+            // Another login may have finished between the cache lookup and registering this login.
+            stackUser = this.users.getIfPresent(cacheKey);
+
+            if (stackUser == null || !stackUser.startSession()) {
+                if (!this.loginThrottle.tryAcquire(username, address)) {
+                    logger.info("Rejected login of {} from {}, too many attempts", username, address);
+                    throw new FtpException("Too many login attempts, try again later");
+                }
+
+                stackUser = this.login(username, password);
+                // Started before caching, so the new user can't be closed by an eviction before the session starts.
+                stackUser.startSession();
+                this.users.put(cacheKey, stackUser);
+            }
+
+            login.complete(stackUser);
+
+            return stackUser;
+        } catch (FtpException | RuntimeException ex) {
+            if (ex instanceof AuthenticationFailedException) {
+                this.failedLogins.put(cacheKey, Boolean.TRUE);
+            }
+
+            login.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.runningLogins.remove(cacheKey, login);
+        }
+    }
+
+    /**
+     * Get the hit, miss and eviction statistics of the user cache.
+     *
+     * @return The statistics.
+     */
+    public CacheStats getCacheStats() {
+        return this.users.stats();
+    }
+
+    /**
+     * Log the size and the hit, miss and eviction statistics of the user cache.
+     */
+    private void logCacheStats() {
+        CacheStats stats = this.getCacheStats();
+
+        logger.info("User cache: {} users, {} hits, {} misses, {} evictions, hit rate {}",
+                this.users.estimatedSize(), stats.hitCount(), stats.missCount(), stats.evictionCount(),
+                String.format("%.2f", stats.hitRate()));
+    }
+
+    /**
+     * Create an user and check its credentials with the Webdav server.
+     *
+     * @param username The username.
+     * @param password The password.
+     * @return The StackUser object.
+     * @throws FtpException Thrown when the credentials are incorrect.
+     */
+    private StackUser login(String username, String password) throws FtpException {
         StackUser stackUser = this.applicationContext.getBean(StackUser.class, username, password);
 
-        this.authenticateUser(stackUser);
+        try {
+            this.authenticateUser(stackUser);
+        } catch (FtpException ex) {
+            stackUser.evict();
+            throw ex;
+        }
 
         return stackUser;
     }
 
+    /**
+     * Wait for a login running in another session.
+     *
+     * @param login The running login.
+     * @return The StackUser object.
+     * @throws FtpException Thrown when the running login failed.
+     */
+    private StackUser awaitLogin(CompletableFuture<StackUser> login) throws FtpException {
+        try {
+            return login.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FtpException("Interrupted while logging in", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof AuthenticationFailedException) {
+                throw new AuthenticationFailedException(ex.getCause().getMessage(), ex.getCause());
+            }
+
+            throw new FtpException(ex.getCause().getMessage(), ex.getCause());
+        }
+    }
+
     /**
      * Check the user credentials.
      *
      * @param stackUser The user to check.
-     * @throws FtpException Thrown when the credentials are incorrect.
+     * @throws AuthenticationFailedException Thrown when the credentials are incorrect.
+     * @throws FtpException Thrown when the Webdav server couldn't be reached.
      */
     private void authenticateUser(StackUser stackUser) throws FtpException {
-        if (!stackUser.getWebdavClient().authenticate()) {
-            throw new FtpException("Username or password wrong");
+        boolean authenticated;
+
+        try {
+            authenticated = stackUser.getWebdavClient().authenticate();
+        } catch (IOException ex) {
+            throw new FtpException("Webdav server connection failed", ex);
+        }
+
+        if (!authenticated) {
+            throw new AuthenticationFailedException("Username or password wrong");
+        }
+    }
+
+    /**
+     * Release the resources of an user removed from the cache.
+     * The Webdav client is closed when the last session of the user has ended.
+     *
+     * @param cacheKey The cache key.
+     * @param stackUser The removed user.
+     * @param cause The reason of the removal.
+     */
+    private void onRemoval(String cacheKey, StackUser stackUser, RemovalCause cause) {
+        if (stackUser != null) {
+            stackUser.evict();
+        }
+
+        logger.debug("Removed user from cache ({}), {}", cause, this.users.stats());
+    }
+
+    /**
+     * Get the cache key of a login.
+     * The password is hashed, so it isn't kept as plain text in the cache.
+     *
+     * @param username The username.
+     * @param password The password.
+     * @return The cache key.
+     */
+    private String getCacheKey(String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(this.salt);
+            byte[] hash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+
+            return username + ':' + Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
         }
     }
 
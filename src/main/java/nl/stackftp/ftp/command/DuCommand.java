@@ -0,0 +1,74 @@
+package nl.stackftp.ftp.command;
+
+import nl.stackftp.ftp.StackFile;
+import nl.stackftp.webdav.DirectoryListing;
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+public class DuCommand extends AbstractCommand {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DuCommand.class);
+
+    /**
+     * Count the directories, files and bytes below a directory: SITE DU [path].
+     * Uses the same recursive listing as LIST -R, so the whole tree costs one or a few requests.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The SITE request.
+     * @throws IOException Thrown when writing the reply failed.
+     * @throws FtpException Thrown when getting the file failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        session.resetState();
+        String path = SiteArguments.getPath(request);
+        FtpFile directory = session.getFileSystemView().getFile(path == null ? "." : path);
+
+        if (!(directory instanceof StackFile) || !directory.isDirectory()) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                    directory.getAbsolutePath() + ": Not a directory"));
+            return;
+        }
+
+        long directories = 0;
+        long files = 0;
+        long bytes = 0;
+
+        try (DirectoryListing listing = ((StackFile) directory).getStackUser().getWebdavClient()
+                .listRecursive(directory.getAbsolutePath())) {
+            StackFile file;
+
+            while ((file = listing.next()) != null) {
+                if (file.isDirectory()) {
+                    directories++;
+                } else {
+                    files++;
+                    bytes += file.getSize();
+                }
+            }
+        } catch (IOException ex) {
+            logger.debug("Recursive listing of {} failed", directory.getAbsolutePath(), ex);
+            session.write(new DefaultFtpReply(FtpReply.REPLY_451_REQUESTED_ACTION_ABORTED,
+                    directory.getAbsolutePath() + ": Listing failed"));
+            return;
+        }
+
+        session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, String.format(
+                "%s: %d directories, %d files, %d bytes", directory.getAbsolutePath(), directories, files, bytes)));
+    }
+}
@@ -0,0 +1,60 @@
+package nl.stackftp.ftp.command;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+
+import java.io.IOException;
+
+public class FeatCommand extends AbstractCommand {
+
+    /**
+     * Send the supported extensions.
+     * The same as the default reply, but the MLST line lists the added facts.
+     * The facts sent by default are marked with a *.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The FEAT request.
+     * @throws IOException Thrown when writing the reply failed.
+     * @throws FtpException Thrown when translating the reply failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        session.resetState();
+        FtpReply reply = LocalizedFtpReply.translate(session, request, context,
+                FtpReply.REPLY_211_SYSTEM_STATUS_REPLY, "FEAT", null);
+
+        session.write(new DefaultFtpReply(reply.getCode(),
+                reply.getMessage().replaceFirst("MLST [^\n]*", "MLST " + getMlstFacts())));
+    }
+
+    /**
+     * Get the facts of the MLST feature line, like "Size*;Modify*;Perm;".
+     *
+     * @return The facts.
+     */
+    private static String getMlstFacts() {
+        StringBuilder facts = new StringBuilder();
+
+        for (String type : MlstFileFormater.AVAILABLE_TYPES) {
+            facts.append(type);
+
+            for (String defaultType : MlstFileFormater.DEFAULT_TYPES) {
+                if (defaultType.equals(type)) {
+                    facts.append('*');
+                }
+            }
+
+            facts.append(';');
+        }
+
+        return facts.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package nl.stackftp.ftp.command;
+
+import nl.stackftp.ftp.StackFile;
+import nl.stackftp.webdav.DirectoryListing;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+final class ListingInputStream extends InputStream {
+
+    /**
+     * The listing of the files.
+     */
+    private final DirectoryListing listing;
+
+    /**
+     * Formats a file as a line.
+     */
+    private final FileFormater formater;
+
+    /**
+     * Selects the listed files, null for all files.
+     */
+    private final FileFilter filter;
+
+    /**
+     * The formatted line being read.
+     */
+    private byte[] line = new byte[0];
+
+    /**
+     * The read position in the line.
+     */
+    private int linePosition = 0;
+
+    /**
+     * The ListingInputStream constructor.
+     * Formats the files of a listing one by one while they are read,
+     * so the first lines are sent before the whole directory is listed.
+     * The file names are relative to the listed directory.
+     *
+     * @param listing The listing.
+     * @param formater Formats a file as a line.
+     * @param filter Selects the listed files, null for all files.
+     */
+    ListingInputStream(DirectoryListing listing, FileFormater formater, FileFilter filter) {
+        this.listing = listing;
+        this.formater = formater;
+        this.filter = filter;
+    }
+
+    /**
+     * Read a single byte.
+     *
+     * @return The byte or -1 at the end.
+     * @throws IOException Thrown when listing failed.
+     */
+    @Override
+    public int read() throws IOException {
+        if (!this.fill()) {
+            return -1;
+        }
+
+        return this.line[this.linePosition++] & 0xff;
+    }
+
+    /**
+     * Read bytes.
+     *
+     * @param bytes The destination.
+     * @param offset The offset in the destination.
+     * @param length The maximum amount of bytes.
+     * @return The amount of bytes read or -1 at the end.
+     * @throws IOException Thrown when listing failed.
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (!this.fill()) {
+            return -1;
+        }
+
+        int chunk = Math.min(length, this.line.length - this.linePosition);
+        System.arraycopy(this.line, this.linePosition, bytes, offset, chunk);
+        this.linePosition += chunk;
+
+        return chunk;
+    }
+
+    /**
+     * Stop the listing.
+     */
+    @Override
+    public void close() {
+        this.listing.close();
+    }
+
+    /**
+     * Format the next file when the current line has been read.
+     *
+     * @return False at the end of the listing.
+     * @throws IOException Thrown when listing failed.
+     */
+    private boolean fill() throws IOException {
+        while (this.linePosition == this.line.length) {
+            StackFile file = this.listing.next();
+
+            if (file == null) {
+                return false;
+            }
+
+            if (this.filter == null || this.filter.accept(file)) {
+                this.line = this.format(file).getBytes(StandardCharsets.UTF_8);
+                this.linePosition = 0;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Format a file with its path relative to the listed directory as name.
+     * The formatters end every line with the file name, which is replaced by the relative path.
+     *
+     * @param file The file.
+     * @return The line.
+     */
+    private String format(StackFile file) {
+        String formatted = this.formater.format(file);
+        int nameIndex = formatted.length() - file.getName().length() - 2;
+
+        return formatted.substring(0, nameIndex) + this.getRelativePath(file) + "\r\n";
+    }
+
+    /**
+     * Get the path of a file relative to the listed directory.
+     *
+     * @param file The file.
+     * @return The relative path.
+     */
+    private String getRelativePath(StackFile file) {
+        String base = this.listing.getPath();
+        String path = file.getAbsolutePath();
+
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        return path.substring(base.endsWith("/") ? base.length() : base.length() + 1);
+    }
+}
@@ -0,0 +1,76 @@
+package nl.stackftp.ftp.command;
+
+import nl.stackftp.ftp.StackFile;
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.ServerFtpStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+public class MkdirsCommand extends AbstractCommand {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MkdirsCommand.class);
+
+    /**
+     * Create a directory with all missing parent directories: SITE MKDIRS path.
+     * Directories known to exist are skipped, so creating many directories in the same tree
+     * costs about one MKCOL per new directory.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The SITE request.
+     * @throws IOException Thrown when writing the reply failed.
+     * @throws FtpException Thrown when getting the file failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        session.resetState();
+        String path = SiteArguments.getPath(request);
+
+        if (path == null) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+                    "Syntax: SITE MKDIRS <directory>"));
+            return;
+        }
+
+        FtpFile directory = session.getFileSystemView().getFile(path);
+        path = directory.getAbsolutePath();
+
+        if (!(directory instanceof StackFile)) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                    path + ": Permission denied"));
+            return;
+        }
+
+        int created;
+
+        try {
+            created = ((StackFile) directory).mkdirs();
+        } catch (IOException ex) {
+            logger.debug("Creating directories {} failed", path, ex);
+            session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                    path + ": Creating directories failed"));
+            return;
+        }
+
+        if (created > 0) {
+            logger.info("Directory create : {} - {}", session.getUser().getName(), path);
+            ((ServerFtpStatistics) context.getFtpStatistics()).setMkdir(session, directory);
+        }
+
+        session.write(new DefaultFtpReply(FtpReply.REPLY_257_PATHNAME_CREATED,
+                "\"" + path.replace("\"", "\"\"") + "\" created, " + created + " new directories"));
+    }
+}
@@ -0,0 +1,59 @@
+package nl.stackftp.ftp.command;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.command.impl.listing.ListArgument;
+import org.apache.ftpserver.command.impl.listing.ListArgumentParser;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+public class MlstCommand extends AbstractCommand {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MlstCommand.class);
+
+    /**
+     * Send the facts of a single file: MLST [path].
+     * The metadata comes from the cache when the file has been listed, so no Webdav call is needed.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The MLST request.
+     * @throws IOException Thrown when writing the reply failed.
+     * @throws FtpException Thrown when translating the reply failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        session.resetState();
+
+        try {
+            ListArgument argument = ListArgumentParser.parse(request.getArgument());
+            FtpFile file = session.getFileSystemView().getFile(argument.getFile());
+
+            if (file != null && file.doesExist()) {
+                // The facts line of a MLST reply starts with a space, the reply adds the line end.
+                String line = MlstFileFormater.forSession(session).format(file);
+                String facts = " " + line.substring(0, line.length() - 2);
+                session.write(LocalizedFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY, "MLST", facts));
+                return;
+            }
+        } catch (FtpException | IllegalArgumentException ex) {
+            logger.debug("Getting the facts of {} failed", request.getArgument(), ex);
+        }
+
+        session.write(LocalizedFtpReply.translate(session, request, context,
+                FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS, "MLST", null));
+    }
+}
@@ -0,0 +1,135 @@
+package nl.stackftp.ftp.command;
+
+import nl.stackftp.ftp.StackFile;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.util.DateUtils;
+
+public class MlstFileFormater implements FileFormater {
+
+    /**
+     * The session attribute with the facts selected by OPTS MLST, shared with the default commands.
+     */
+    static final String TYPES_ATTRIBUTE = "MLST.types";
+
+    /**
+     * The supported facts.
+     */
+    static final String[] AVAILABLE_TYPES = {"Size", "Modify", "Type", "Perm", "Unique", "Media-Type"};
+
+    /**
+     * The facts sent when no OPTS MLST has been given.
+     */
+    static final String[] DEFAULT_TYPES = {"Size", "Modify", "Type", "Unique"};
+
+    /**
+     * The selected facts.
+     */
+    private final String[] types;
+
+    /**
+     * The MlstFileFormater constructor.
+     *
+     * @param types The selected facts, null for the default facts.
+     */
+    public MlstFileFormater(String[] types) {
+        this.types = types == null ? DEFAULT_TYPES : types.clone();
+    }
+
+    /**
+     * Create a formatter with the facts selected in a session.
+     *
+     * @param session The ftp session.
+     * @return The formatter.
+     */
+    public static MlstFileFormater forSession(FtpIoSession session) {
+        return new MlstFileFormater((String[]) session.getAttribute(TYPES_ATTRIBUTE));
+    }
+
+    /**
+     * Format a file as MLST facts line, like "Size=12;Type=file; name".
+     * All facts come from the file metadata, so a listed file doesn't need another Webdav call.
+     *
+     * @param file The file.
+     * @return The line, ending with CRLF.
+     */
+    @Override
+    public String format(FtpFile file) {
+        StringBuilder line = new StringBuilder();
+
+        for (String type : this.types) {
+            String value = this.getFact(file, type);
+
+            if (value != null) {
+                line.append(type).append('=').append(value).append(';');
+            }
+        }
+
+        return line.append(' ').append(file.getName()).append("\r\n").toString();
+    }
+
+    /**
+     * Get the value of a fact.
+     *
+     * @param file The file.
+     * @param type The fact name.
+     * @return The value or null when the file doesn't have it.
+     */
+    private String getFact(FtpFile file, String type) {
+        switch (type) {
+            case "Size":
+                return String.valueOf(file.getSize());
+            case "Modify":
+                return DateUtils.getFtpDate(file.getLastModified());
+            case "Type":
+                return file.isDirectory() ? "dir" : file.isFile() ? "file" : null;
+            case "Perm":
+                return getPerm(file);
+            case "Unique":
+                return file instanceof StackFile ? toUnique(((StackFile) file).getEtag()) : null;
+            case "Media-Type":
+                return file instanceof StackFile ? ((StackFile) file).getContentType() : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the permissions fact, the same as the default formatter.
+     *
+     * @param file The file.
+     * @return The permissions.
+     */
+    private static String getPerm(FtpFile file) {
+        StringBuilder perm = new StringBuilder();
+
+        if (file.isReadable()) {
+            perm.append(file.isDirectory() ? "el" : file.isFile() ? "r" : "");
+        }
+
+        if (file.isWritable()) {
+            perm.append(file.isDirectory() ? "fpcm" : file.isFile() ? "adfw" : "");
+        }
+
+        return perm.toString();
+    }
+
+    /**
+     * Convert an etag to a unique fact.
+     * The weak prefix and quotes are removed, the fact may not contain ';' or spaces.
+     *
+     * @param etag The etag.
+     * @return The unique fact or null when the etag is unknown.
+     */
+    static String toUnique(String etag) {
+        if (etag == null) {
+            return null;
+        }
+
+        String unique = etag.startsWith("W/") ? etag.substring(2) : etag;
+        unique = unique.replace("\"", "").replaceAll("[;\\s]", "");
+
+        return unique.isEmpty() ? null : unique;
+    }
+}
@@ -0,0 +1,49 @@
+package nl.stackftp.ftp.command;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OptsMlstCommand extends AbstractCommand {
+
+    /**
+     * Select the MLST and MLSD facts: OPTS MLST fact;fact;...
+     * The same as the default command, but also accepts the Unique and Media-Type facts.
+     * Unknown facts are ignored.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The OPTS request.
+     * @throws IOException Thrown when writing the reply failed.
+     * @throws FtpException Thrown when translating the reply failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        session.resetState();
+        String argument = request.getArgument();
+        int spaceIndex = argument.indexOf(' ');
+        String selectedTypes = spaceIndex == -1 ? "" : argument.substring(spaceIndex + 1);
+        List<String> types = new ArrayList<>();
+
+        for (String type : selectedTypes.split(";")) {
+            for (String availableType : MlstFileFormater.AVAILABLE_TYPES) {
+                if (availableType.equalsIgnoreCase(type.trim())) {
+                    types.add(availableType);
+                }
+            }
+        }
+
+        session.setAttribute(MlstFileFormater.TYPES_ATTRIBUTE, types.toArray(new String[0]));
+        session.write(LocalizedFtpReply.translate(session, request, context,
+                FtpReply.REPLY_200_COMMAND_OKAY, "OPTS.MLST", selectedTypes));
+    }
+}
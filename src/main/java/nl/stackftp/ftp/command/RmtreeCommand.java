@@ -0,0 +1,87 @@
+package nl.stackftp.ftp.command;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.ServerFtpStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class RmtreeCommand extends AbstractCommand {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RmtreeCommand.class);
+
+    /**
+     * Remove a directory with everything in it: SITE RMTREE path.
+     * A Webdav collection is deleted with all its members by a single DELETE request,
+     * so clients don't have to delete a tree file by file.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The SITE request.
+     * @throws IOException Thrown when writing the reply failed.
+     * @throws FtpException Thrown when getting the working directory failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        session.resetState();
+        String path = SiteArguments.getPath(request);
+
+        if (path == null) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+                    "Syntax: SITE RMTREE <directory>"));
+            return;
+        }
+
+        FtpFile directory = session.getFileSystemView().getFile(path);
+        path = directory.getAbsolutePath();
+
+        if (!directory.isDirectory()) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                    path + ": Not a directory"));
+            return;
+        }
+
+        String workingDirectory = session.getFileSystemView().getWorkingDirectory().getAbsolutePath();
+
+        // Removing the working directory or one of its parents leaves the session in a deleted directory.
+        if (workingDirectory.equals(path) || workingDirectory.startsWith(path + '/')) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_450_REQUESTED_FILE_ACTION_NOT_TAKEN,
+                    path + ": Directory is in use"));
+            return;
+        }
+
+        if (!directory.isRemovable()) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                    path + ": Permission denied"));
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        if (!directory.delete()) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_450_REQUESTED_FILE_ACTION_NOT_TAKEN,
+                    path + ": Removing directory tree failed"));
+            return;
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        logger.info("Directory tree remove : {} - {} in {} ms", session.getUser().getName(), path, millis);
+        ((ServerFtpStatistics) context.getFtpStatistics()).setRmdir(session, directory);
+        session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY,
+                path + ": Directory tree removed in " + millis + " ms"));
+    }
+}
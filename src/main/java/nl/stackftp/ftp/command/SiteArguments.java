@@ -0,0 +1,37 @@
+package nl.stackftp.ftp.command;
+
+import org.apache.ftpserver.ftplet.FtpRequest;
+
+final class SiteArguments {
+
+    /**
+     * SiteArguments only has static methods.
+     */
+    private SiteArguments() {
+    }
+
+    /**
+     * Get the path argument of a SITE command, like dir in "SITE RMTREE dir".
+     * The path may contain spaces.
+     *
+     * @param request The SITE request.
+     * @return The path or null when missing.
+     */
+    static String getPath(FtpRequest request) {
+        String argument = request.getArgument();
+
+        if (argument == null) {
+            return null;
+        }
+
+        int separatorIndex = argument.indexOf(' ');
+
+        if (separatorIndex == -1) {
+            return null;
+        }
+
+        String path = argument.substring(separatorIndex + 1).trim();
+
+        return path.isEmpty() ? null : path;
+    }
+}
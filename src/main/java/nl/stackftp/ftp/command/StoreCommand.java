@@ -0,0 +1,184 @@
+package nl.stackftp.ftp.command;
+
+import nl.stackftp.webdav.AbortableUpload;
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.IODataConnectionFactory;
+import org.apache.ftpserver.impl.LocalizedDataTransferFtpReply;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.apache.ftpserver.impl.ServerFtpStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+
+public class StoreCommand extends AbstractCommand {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StoreCommand.class);
+
+    /**
+     * The name of the command, STOR or APPE.
+     */
+    private final String name;
+
+    /**
+     * Append to the existing file instead of starting at the REST offset.
+     */
+    private final boolean append;
+
+    /**
+     * The StoreCommand constructor.
+     * Stores a file like the default command, but a failed transfer aborts the upload instead of closing it.
+     * Closing an upload stores the file, so a dropped connection would store the received part as the whole file.
+     *
+     * @param name The name of the command, STOR or APPE.
+     * @param append Append to the existing file instead of starting at the REST offset.
+     */
+    public StoreCommand(String name, boolean append) {
+        this.name = name;
+        this.append = append;
+    }
+
+    /**
+     * Receive a file over the data connection and store it.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The request.
+     * @throws IOException Thrown when writing a reply failed.
+     * @throws FtpException Thrown when getting the file failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        long offset = session.getFileOffset();
+
+        try {
+            String fileName = request.getArgument();
+
+            if (fileName == null) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS, this.name, null, null));
+                return;
+            }
+
+            if (session.getDataConnection() instanceof IODataConnectionFactory
+                    && ((IODataConnectionFactory) session.getDataConnection()).getInetAddress() == null) {
+                session.write(new DefaultFtpReply(FtpReply.REPLY_503_BAD_SEQUENCE_OF_COMMANDS,
+                        "PORT or PASV must be issued first"));
+                return;
+            }
+
+            FtpFile file = session.getFileSystemView().getFile(fileName);
+
+            if (file == null || (this.append && file.doesExist() && !file.isFile())) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN, this.name + ".invalid", fileName, file));
+                return;
+            }
+
+            if (!file.isWritable()) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN, this.name + ".permission",
+                        file.getAbsolutePath(), file));
+                return;
+            }
+
+            if (this.append) {
+                offset = file.doesExist() ? file.getSize() : 0;
+            }
+
+            session.write(LocalizedFtpReply.translate(session, request, context,
+                    FtpReply.REPLY_150_FILE_STATUS_OKAY, this.name, file.getAbsolutePath()))
+                    .awaitUninterruptibly(10000);
+
+            DataConnection dataConnection;
+
+            try {
+                dataConnection = session.getDataConnection().openConnection();
+            } catch (Exception ex) {
+                logger.debug("Opening the data connection failed", ex);
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_425_CANT_OPEN_DATA_CONNECTION, this.name, file.getAbsolutePath(), file));
+                return;
+            }
+
+            this.transfer(session, request, context, dataConnection, file, offset);
+        } finally {
+            session.resetState();
+            session.getDataConnection().closeDataConnection();
+        }
+    }
+
+    /**
+     * Receive the file over the data connection.
+     *
+     * @param session The ftp session.
+     * @param request The request.
+     * @param context The ftp server context.
+     * @param dataConnection The data connection.
+     * @param file The stored file.
+     * @param offset The offset to start at.
+     * @throws IOException Thrown when writing a reply failed.
+     */
+    private void transfer(FtpIoSession session, FtpRequest request, FtpServerContext context,
+                          DataConnection dataConnection, FtpFile file, long offset) throws IOException {
+        OutputStream outputStream = null;
+        long transferred;
+
+        try {
+            outputStream = file.createOutputStream(offset);
+            transferred = dataConnection.transferFromClient(session.getFtpletSession(), outputStream);
+            // Only a complete transfer is stored.
+            outputStream.close();
+        } catch (SocketException ex) {
+            logger.debug("Socket exception during upload of {}", file.getAbsolutePath(), ex);
+            abort(outputStream);
+            session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                    FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED, this.name, file.getAbsolutePath(), file));
+            return;
+        } catch (IOException ex) {
+            logger.debug("Upload of {} failed", file.getAbsolutePath(), ex);
+            abort(outputStream);
+            session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                    FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN, this.name,
+                    file.getAbsolutePath(), file));
+            return;
+        }
+
+        logger.info("File uploaded {}", file.getAbsolutePath());
+        ((ServerFtpStatistics) context.getFtpStatistics()).setUpload(session, file, transferred);
+        session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                FtpReply.REPLY_226_CLOSING_DATA_CONNECTION, this.name, file.getAbsolutePath(), file, transferred));
+    }
+
+    /**
+     * Abort an upload after a failed transfer, without storing the file.
+     * Streams that can't be aborted are closed.
+     *
+     * @param outputStream The upload, null when it wasn't started.
+     */
+    private static void abort(OutputStream outputStream) {
+        if (outputStream instanceof AbortableUpload) {
+            ((AbortableUpload) outputStream).abort();
+        } else if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException ex) {
+                logger.debug("Closing the aborted upload failed", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package nl.stackftp.ftp.command;
+
+import nl.stackftp.ftp.StackFile;
+import nl.stackftp.webdav.DirectoryListing;
+import nl.stackftp.webdav.WebdavClient;
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.command.impl.listing.LISTFileFormater;
+import org.apache.ftpserver.command.impl.listing.ListArgument;
+import org.apache.ftpserver.command.impl.listing.ListArgumentParser;
+import org.apache.ftpserver.command.impl.listing.RegexFileFilter;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.IODataConnectionFactory;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.function.Function;
+
+public class StreamingListCommand extends AbstractCommand {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StreamingListCommand.class);
+
+    /**
+     * Formats files for the long listing option.
+     */
+    private static final LISTFileFormater LIST_FILE_FORMATER = new LISTFileFormater();
+
+    /**
+     * The name of the command, LIST, NLST or MLSD.
+     */
+    private final String name;
+
+    /**
+     * The command used for listing files.
+     */
+    private final Command defaultCommand;
+
+    /**
+     * Creates the formatter of the listed files for a session.
+     */
+    private final Function<FtpIoSession, FileFormater> formaterFactory;
+
+    /**
+     * The StreamingListCommand constructor.
+     * Sends directory listings while the directory is being listed and adds the -R option.
+     * Listings of a single file are done by the default command.
+     * The formatter is created per listing, so it can depend on the session like the facts selected for MLSD.
+     *
+     * @param name The name of the command, LIST, NLST or MLSD.
+     * @param defaultCommand The command used for listing files.
+     * @param formaterFactory Creates the formatter of the listed files for a session.
+     */
+    public StreamingListCommand(String name, Command defaultCommand,
+                                Function<FtpIoSession, FileFormater> formaterFactory) {
+        this.name = name;
+        this.defaultCommand = defaultCommand;
+        this.formaterFactory = formaterFactory;
+    }
+
+    /**
+     * List a directory, or the whole tree below it with the -R option.
+     * The listing is sent while the directory is being listed, so huge directories don't have to fit in memory.
+     * Every line has the path relative to the directory.
+     *
+     * @param session The ftp session.
+     * @param context The ftp server context.
+     * @param request The request.
+     * @throws IOException Thrown when writing a reply failed.
+     * @throws FtpException Thrown when getting the file failed.
+     */
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        ListArgument argument;
+
+        try {
+            argument = ListArgumentParser.parse(request.getArgument());
+        } catch (IllegalArgumentException ex) {
+            argument = null;
+        }
+
+        FtpFile directory = argument != null ? session.getFileSystemView().getFile(argument.getFile()) : null;
+
+        // Files and non existing paths are handled as usual.
+        if (!(directory instanceof StackFile) || !directory.isDirectory()) {
+            this.defaultCommand.execute(session, context, request);
+            return;
+        }
+
+        try {
+            session.resetState();
+
+            if (session.getDataConnection() instanceof IODataConnectionFactory
+                    && ((IODataConnectionFactory) session.getDataConnection()).getInetAddress() == null) {
+                session.write(new DefaultFtpReply(FtpReply.REPLY_503_BAD_SEQUENCE_OF_COMMANDS,
+                        "PORT or PASV must be issued first"));
+                return;
+            }
+
+            session.write(LocalizedFtpReply.translate(session, request, context,
+                    FtpReply.REPLY_150_FILE_STATUS_OKAY, this.name, null));
+
+            DataConnection dataConnection;
+
+            try {
+                dataConnection = session.getDataConnection().openConnection();
+            } catch (Exception ex) {
+                logger.debug("Opening the data connection failed", ex);
+                session.write(new DefaultFtpReply(FtpReply.REPLY_425_CANT_OPEN_DATA_CONNECTION,
+                        "Can't open data connection"));
+                return;
+            }
+
+            this.transfer(session, request, context, dataConnection, (StackFile) directory, argument);
+        } finally {
+            session.getDataConnection().closeDataConnection();
+        }
+    }
+
+    /**
+     * Send the listing over the data connection.
+     *
+     * @param session The ftp session.
+     * @param request The request.
+     * @param context The ftp server context.
+     * @param dataConnection The data connection.
+     * @param directory The listed directory.
+     * @param argument The parsed listing argument.
+     * @throws IOException Thrown when writing a reply failed.
+     */
+    private void transfer(FtpIoSession session, FtpRequest request, FtpServerContext context,
+                          DataConnection dataConnection, StackFile directory, ListArgument argument)
+            throws IOException {
+        FileFormater lineFormater = argument.hasOption('l')
+                ? LIST_FILE_FORMATER : this.formaterFactory.apply(session);
+        FileFilter filter = argument.getPattern() == null ? null : new RegexFileFilter(argument.getPattern());
+        WebdavClient webdavClient = directory.getStackUser().getWebdavClient();
+        DirectoryListing listing = argument.hasOption('R')
+                ? webdavClient.listRecursive(directory.getAbsolutePath())
+                : webdavClient.listStream(directory.getAbsolutePath());
+        long transferred;
+
+        try (ListingInputStream listingStream = new ListingInputStream(listing, lineFormater, filter)) {
+            transferred = dataConnection.transferToClient(session.getFtpletSession(), listingStream);
+        } catch (SocketException ex) {
+            logger.debug("Socket exception during list transfer", ex);
+            session.write(new DefaultFtpReply(FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED,
+                    "Data connection closed, transfer aborted"));
+            return;
+        } catch (IOException ex) {
+            logger.debug("Listing {} failed", directory.getAbsolutePath(), ex);
+            session.write(new DefaultFtpReply(FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN,
+                    "Listing " + directory.getAbsolutePath() + " failed"));
+            return;
+        }
+
+        session.write(new DefaultFtpReply(FtpReply.REPLY_226_CLOSING_DATA_CONNECTION,
+                "Closing data connection, sent " + transferred + " bytes"));
+    }
+}
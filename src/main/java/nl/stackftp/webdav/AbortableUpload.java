@@ -0,0 +1,11 @@
+package nl.stackftp.webdav;
+
+public interface AbortableUpload {
+
+    /**
+     * Stop the upload without storing the file, used when the ftp transfer failed.
+     * Chunks that are already uploaded are kept, so the upload can be resumed with REST and STOR.
+     * Closing the stream afterwards does nothing.
+     */
+    void abort();
+}
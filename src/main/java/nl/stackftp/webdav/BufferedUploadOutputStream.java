@@ -0,0 +1,215 @@
+package nl.stackftp.webdav;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+final class BufferedUploadOutputStream extends OutputStream implements AbortableUpload {
+
+    /**
+     * The maximum size of a buffered file in bytes.
+     */
+    private final int threshold;
+
+    /**
+     * The memory budget of all buffered uploads together, the threshold is reserved from it.
+     */
+    private final Semaphore memoryBudget;
+
+    /**
+     * Sends the buffered file with a single request.
+     */
+    private final BufferedUpload bufferedUpload;
+
+    /**
+     * Starts a streaming upload when the file is bigger than the threshold.
+     */
+    private final Callable<OutputStream> streamingUpload;
+
+    /**
+     * The buffered bytes, null when streaming.
+     */
+    private byte[] buffer = new byte[1024];
+
+    /**
+     * The amount of buffered bytes.
+     */
+    private int count = 0;
+
+    /**
+     * The streaming upload, null while buffering.
+     */
+    private OutputStream outputStream;
+
+    /**
+     * Is this stream closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The exception of starting the streaming upload, null when it didn't fail.
+     */
+    private IOException failure;
+
+    /**
+     * The BufferedUploadOutputStream constructor.
+     * The memory for the threshold must already be reserved from the budget, it is released on close.
+     *
+     * @param threshold The maximum size of a buffered file in bytes.
+     * @param memoryBudget The memory budget of all buffered uploads together.
+     * @param bufferedUpload Sends the buffered file with a single request.
+     * @param streamingUpload Starts a streaming upload when the file is bigger than the threshold.
+     */
+    BufferedUploadOutputStream(int threshold, Semaphore memoryBudget, BufferedUpload bufferedUpload,
+                               Callable<OutputStream> streamingUpload) {
+        this.threshold = threshold;
+        this.memoryBudget = memoryBudget;
+        this.bufferedUpload = bufferedUpload;
+        this.streamingUpload = streamingUpload;
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param b The byte.
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Write bytes, they are buffered until the file gets bigger than the threshold.
+     *
+     * @param bytes The bytes.
+     * @param offset The offset in bytes.
+     * @param length The amount of bytes.
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (this.closed) {
+            throw new IOException("Upload is closed");
+        }
+
+        if (this.failure != null) {
+            throw this.failure;
+        }
+
+        if (this.outputStream == null && this.count + length > this.threshold) {
+            this.startStreaming();
+        }
+
+        if (this.outputStream != null) {
+            this.outputStream.write(bytes, offset, length);
+            return;
+        }
+
+        if (this.count + length > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer,
+                    Math.min(this.threshold, Math.max(this.count + length, this.buffer.length * 2)));
+        }
+
+        System.arraycopy(bytes, offset, this.buffer, this.count, length);
+        this.count += length;
+    }
+
+    /**
+     * Send the file and wait until the Webdav server has responded.
+     * The ftp client only gets a success reply when the file is really stored.
+     * Nothing is sent when starting the streaming upload failed, the buffer only has the start of the file.
+     *
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+
+        if (this.failure != null) {
+            throw this.failure;
+        }
+
+        if (this.outputStream != null) {
+            this.outputStream.close();
+            return;
+        }
+
+        try {
+            UploadOutputStream.await(this.bufferedUpload.send(this.buffer, this.count));
+        } finally {
+            this.releaseBuffer();
+        }
+    }
+
+    /**
+     * Stop the upload without sending the file.
+     * The buffer is dropped, a streaming upload is aborted.
+     */
+    @Override
+    public void abort() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.releaseBuffer();
+
+        if (this.outputStream instanceof AbortableUpload) {
+            ((AbortableUpload) this.outputStream).abort();
+        }
+    }
+
+    /**
+     * Switch to a streaming upload, starting with the buffered bytes.
+     * When the upload can't be started the buffer is dropped and the stream fails.
+     *
+     * @throws IOException Thrown when the upload can't be started.
+     */
+    private void startStreaming() throws IOException {
+        try {
+            this.outputStream = this.streamingUpload.call();
+        } catch (Exception ex) {
+            this.failure = ex instanceof IOException ? (IOException) ex : new IOException("Starting upload failed", ex);
+            this.releaseBuffer();
+
+            throw this.failure;
+        }
+
+        try {
+            this.outputStream.write(this.buffer, 0, this.count);
+        } finally {
+            this.releaseBuffer();
+        }
+    }
+
+    /**
+     * Release the buffer and its reserved memory.
+     */
+    private void releaseBuffer() {
+        if (this.buffer != null) {
+            this.buffer = null;
+            this.memoryBudget.release(this.threshold);
+        }
+    }
+
+    interface BufferedUpload {
+
+        /**
+         * Start sending a buffered file.
+         *
+         * @param bytes The buffer.
+         * @param length The amount of bytes in the buffer.
+         * @return The running request.
+         * @throws IOException Thrown when the request can't be started.
+         */
+        Future<?> send(byte[] bytes, int length) throws IOException;
+    }
+}
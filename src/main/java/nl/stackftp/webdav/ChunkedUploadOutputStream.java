@@ -0,0 +1,475 @@
+package nl.stackftp.webdav;
+
+import com.github.sardine.impl.SardineException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+final class ChunkedUploadOutputStream extends OutputStream implements AbortableUpload {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadOutputStream.class);
+
+    /**
+     * The chunk name format. Chunks are named by their offset, so they sort in file order.
+     */
+    private static final String CHUNK_NAME_FORMAT = "%015d";
+
+    /**
+     * The client doing the requests.
+     */
+    private final StackSardine sardine;
+
+    /**
+     * The url of the collection holding the chunks.
+     */
+    private final String chunksUrl;
+
+    /**
+     * The url of the destination file.
+     */
+    private final String destinationUrl;
+
+    /**
+     * The maximum amount of chunks uploading at the same time.
+     */
+    private final int parallelChunks;
+
+    /**
+     * The amount of retries of a failed chunk.
+     */
+    private final int retries;
+
+    /**
+     * The executor uploading the chunks.
+     */
+    private final TransferExecutor uploadExecutor;
+
+    /**
+     * Called when the stream is closed, with true when the file was stored and false when the upload failed or
+     * was aborted.
+     */
+    private final Consumer<Boolean> closeListener;
+
+    /**
+     * The uploading chunks in file order.
+     */
+    private final Deque<Future<Void>> chunks = new ArrayDeque<>();
+
+    /**
+     * The chunk being filled.
+     */
+    private byte[] buffer;
+
+    /**
+     * The amount of bytes in the buffer.
+     */
+    private int bufferCount = 0;
+
+    /**
+     * The file offset of the first byte in the buffer.
+     */
+    private long bufferOffset = 0;
+
+    /**
+     * The time the upload started.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Is the stream closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The ChunkedUploadOutputStream constructor.
+     * The file is split in chunks that are uploaded in parallel and assembled by the server when closed.
+     * Failed chunks are retried. When the upload fails or is aborted the uploaded chunks are kept,
+     * so the upload can be resumed by opening it again with an offset.
+     *
+     * @param sardine The client doing the requests.
+     * @param chunksUrl The url of the collection holding the chunks.
+     * @param destinationUrl The url of the destination file.
+     * @param chunkSize The size of a chunk in bytes.
+     * @param parallelChunks The maximum amount of chunks uploading at the same time.
+     * @param retries The amount of retries of a failed chunk.
+     * @param uploadExecutor The executor uploading the chunks.
+     * @param closeListener Called when the stream is closed, with true when the file was stored.
+     */
+    private ChunkedUploadOutputStream(StackSardine sardine, String chunksUrl, String destinationUrl, int chunkSize,
+                                      int parallelChunks, int retries, TransferExecutor uploadExecutor,
+                                      Consumer<Boolean> closeListener) {
+        this.sardine = sardine;
+        this.chunksUrl = chunksUrl;
+        this.destinationUrl = destinationUrl;
+        this.buffer = new byte[Math.max(1, chunkSize)];
+        this.parallelChunks = Math.max(1, parallelChunks);
+        this.retries = Math.max(0, retries);
+        this.uploadExecutor = uploadExecutor;
+        this.closeListener = closeListener;
+    }
+
+    /**
+     * Open a chunked upload.
+     * With an offset of 0 a new upload is started in a new chunk collection, otherwise the upload in the chunk
+     * collection is resumed.
+     *
+     * @param sardine The client doing the requests.
+     * @param chunksUrl The url of the collection holding the chunks.
+     * @param destinationUrl The url of the destination file.
+     * @param offset The offset to start at.
+     * @param chunkSize The size of a chunk in bytes.
+     * @param parallelChunks The maximum amount of chunks uploading at the same time.
+     * @param retries The amount of retries of a failed chunk.
+     * @param uploadExecutor The executor uploading the chunks.
+     * @param closeListener Called when the stream is closed, with true when the file was stored and false when the
+     *                      upload failed or was aborted.
+     * @return The output stream.
+     * @throws IOException Thrown when the upload can't be started or resumed.
+     */
+    static ChunkedUploadOutputStream open(StackSardine sardine, String chunksUrl, String destinationUrl, long offset,
+                                          int chunkSize, int parallelChunks, int retries,
+                                          TransferExecutor uploadExecutor, Consumer<Boolean> closeListener)
+            throws IOException {
+        ChunkedUploadOutputStream outputStream = new ChunkedUploadOutputStream(sardine, chunksUrl, destinationUrl,
+                chunkSize, parallelChunks, retries, uploadExecutor, closeListener);
+
+        if (offset > 0) {
+            outputStream.resume(offset);
+        } else {
+            outputStream.begin();
+        }
+
+        return outputStream;
+    }
+
+    /**
+     * Is there an interrupted upload in a chunk collection.
+     *
+     * @param sardine The client doing the requests.
+     * @param chunksUrl The url of the collection holding the chunks.
+     * @return True when the collection exists.
+     * @throws IOException Thrown when the request failed.
+     */
+    static boolean hasUpload(StackSardine sardine, String chunksUrl) throws IOException {
+        try (MultistatusReader reader = sardine.propfind(chunksUrl, 0)) {
+            return reader.next() != null;
+        } catch (SardineException ex) {
+            if (ex.getStatusCode() == 404) {
+                return false;
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param b The byte.
+     * @throws IOException Thrown when uploading a chunk failed.
+     */
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Write bytes.
+     *
+     * @param bytes The bytes.
+     * @param offset The offset in bytes.
+     * @param length The amount of bytes.
+     * @throws IOException Thrown when uploading a chunk failed.
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (length > 0) {
+            int chunk = Math.min(length, this.buffer.length - this.bufferCount);
+            System.arraycopy(bytes, offset, this.buffer, this.bufferCount, chunk);
+            this.bufferCount += chunk;
+            offset += chunk;
+            length -= chunk;
+
+            if (this.bufferCount == this.buffer.length) {
+                this.uploadBuffer();
+            }
+        }
+    }
+
+    /**
+     * Upload the last chunk, wait for all chunks and let the server assemble the file.
+     * Only called when the whole file has been received, a failed transfer is aborted instead.
+     *
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        boolean stored = false;
+
+        try {
+            this.uploadBuffer();
+
+            while (!this.chunks.isEmpty()) {
+                this.awaitOldestChunk();
+            }
+
+            if (this.bufferOffset == 0) {
+                // There is nothing to assemble, so store the empty file directly.
+                this.sardine.put(this.destinationUrl, new byte[0]);
+                this.sardine.delete(this.chunksUrl);
+            } else {
+                this.sardine.assemble(this.chunksUrl, this.destinationUrl, this.bufferOffset);
+            }
+
+            stored = true;
+        } finally {
+            this.cancelChunks();
+            this.closeListener.accept(stored);
+        }
+
+        WebdavClient.logThroughput(this.destinationUrl, this.bufferOffset, System.nanoTime() - this.start);
+    }
+
+    /**
+     * Stop the upload without assembling the file.
+     * The received bytes are still uploaded as chunks, so the upload can be resumed after them.
+     */
+    @Override
+    public void abort() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+
+        try {
+            this.uploadBuffer();
+
+            while (!this.chunks.isEmpty()) {
+                this.awaitOldestChunk();
+            }
+        } catch (IOException ex) {
+            logger.warn("Uploading the chunks of aborted upload {} failed: {}", this.destinationUrl, ex.getMessage());
+        } finally {
+            this.cancelChunks();
+            this.closeListener.accept(false);
+        }
+    }
+
+    /**
+     * Start a new upload.
+     *
+     * @throws IOException Thrown when creating the chunk collection failed.
+     */
+    private void begin() throws IOException {
+        this.sardine.createDirectory(this.chunksUrl);
+    }
+
+    /**
+     * Resume an upload at an offset.
+     * Chunks after the offset are removed. When the offset is inside a chunk,
+     * the first part of that chunk is downloaded and uploaded again with the new data.
+     *
+     * @param offset The offset.
+     * @throws IOException Thrown when there are not enough uploaded chunks to resume at the offset.
+     */
+    private void resume(long offset) throws IOException {
+        // Chunk lengths by chunk offset.
+        TreeMap<Long, Long> uploadedChunks = new TreeMap<>();
+
+        try (MultistatusReader reader = this.sardine.propfind(this.chunksUrl, 1)) {
+            MultistatusReader.Resource resource;
+
+            while ((resource = reader.next()) != null) {
+                String name = resource.getPath().substring(resource.getPath().lastIndexOf('/') + 1);
+
+                try {
+                    uploadedChunks.put(Long.parseLong(name), resource.getMetadata().getSize());
+                } catch (NumberFormatException ex) {
+                    // The collection itself or not a chunk of this application.
+                }
+            }
+        } catch (SardineException ex) {
+            if (ex.getStatusCode() == 404) {
+                throw new IOException("There is no upload to resume");
+            }
+
+            throw ex;
+        }
+
+        long position = 0;
+        byte[] prefix = new byte[0];
+
+        for (Map.Entry<Long, Long> uploadedChunk : uploadedChunks.entrySet()) {
+            long chunkOffset = uploadedChunk.getKey();
+            long chunkEnd = chunkOffset + uploadedChunk.getValue();
+            String chunkUrl = this.chunkUrl(chunkOffset);
+
+            if (chunkOffset == position && chunkEnd <= offset) {
+                position = chunkEnd;
+                continue;
+            }
+
+            if (chunkOffset == position && chunkOffset < offset) {
+                prefix = this.sardine.getRange(chunkUrl, 0, (int) (offset - chunkOffset));
+
+                if (prefix == null) {
+                    throw new IOException("Server doesn't support range requests, can't resume inside a chunk");
+                }
+
+                position = offset;
+            }
+
+            this.sardine.delete(chunkUrl);
+        }
+
+        if (position != offset) {
+            throw new IOException("Can't resume at " + offset + ", only " + position + " bytes are uploaded");
+        }
+
+        this.bufferOffset = offset - prefix.length;
+        this.write(prefix, 0, prefix.length);
+    }
+
+    /**
+     * Upload the buffer as a chunk.
+     * Waits for the oldest chunk when the maximum amount of parallel chunks is reached.
+     *
+     * @throws IOException Thrown when uploading a chunk failed.
+     */
+    private void uploadBuffer() throws IOException {
+        if (this.bufferCount == 0) {
+            return;
+        }
+
+        while (this.chunks.size() >= this.parallelChunks) {
+            this.awaitOldestChunk();
+        }
+
+        byte[] chunk = this.buffer;
+        int chunkLength = this.bufferCount;
+        String chunkUrl = this.chunkUrl(this.bufferOffset);
+
+        this.chunks.add(this.uploadExecutor.submit(() -> {
+            this.uploadChunk(chunkUrl, chunk, chunkLength);
+
+            return null;
+        }));
+
+        this.buffer = new byte[chunk.length];
+        this.bufferOffset += chunkLength;
+        this.bufferCount = 0;
+    }
+
+    /**
+     * Upload a chunk, retrying when it fails.
+     * Client errors are not retried because they will fail again.
+     *
+     * @param chunkUrl The chunk url.
+     * @param chunk The chunk bytes.
+     * @param length The chunk length.
+     * @throws IOException Thrown when the last try failed.
+     */
+    private void uploadChunk(String chunkUrl, byte[] chunk, int length) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                this.sardine.put(chunkUrl, new ByteArrayEntity(chunk, 0, length), null, true);
+
+                return;
+            } catch (IOException ex) {
+                boolean clientError = ex instanceof SardineException
+                        && ((SardineException) ex).getStatusCode() >= 400
+                        && ((SardineException) ex).getStatusCode() < 500;
+
+                if (clientError || attempt >= this.retries) {
+                    throw ex;
+                }
+
+                logger.warn("Uploading chunk {} failed, retrying: {}", chunkUrl, ex.getMessage());
+                this.backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Wait before retrying a chunk.
+     *
+     * @param attempt The number of the failed attempt, starting at 0.
+     * @throws InterruptedIOException Thrown when interrupted.
+     */
+    private void backOff(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(500L << Math.min(attempt, 5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying a chunk");
+        }
+    }
+
+    /**
+     * Wait for the oldest uploading chunk.
+     *
+     * @throws IOException Thrown when the chunk failed.
+     */
+    private void awaitOldestChunk() throws IOException {
+        try {
+            this.chunks.peek().get();
+            this.chunks.poll();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException("Uploading chunk failed", cause);
+        }
+    }
+
+    /**
+     * Cancel all uploading chunks.
+     */
+    private void cancelChunks() {
+        Future<Void> future;
+
+        while ((future = this.chunks.poll()) != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Get the url of a chunk.
+     *
+     * @param offset The chunk offset.
+     * @return The chunk url.
+     */
+    private String chunkUrl(long offset) {
+        return this.chunksUrl + '/' + String.format(CHUNK_NAME_FORMAT, offset);
+    }
+}
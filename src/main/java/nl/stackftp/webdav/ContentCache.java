@@ -0,0 +1,415 @@
+package nl.stackftp.webdav;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+final class ContentCache {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ContentCache.class);
+
+    /**
+     * The suffix of files that are being downloaded.
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * The directory with the cached files.
+     */
+    private final Path directory;
+
+    /**
+     * The maximum size of all cached files together in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The sizes of the cached files by key, in least recently used order.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The size of all cached files together in bytes.
+     */
+    private long size = 0;
+
+    /**
+     * The ContentCache constructor.
+     * Files cached before a restart are used again, the oldest are used first for eviction.
+     *
+     * @param directory The directory with the cached files.
+     * @param maxSize The maximum size of all cached files together in bytes.
+     * @throws IOException Thrown when the directory can't be created or read.
+     */
+    ContentCache(Path directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = Math.max(0, maxSize);
+
+        Files.createDirectories(directory);
+
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        files.sort(Comparator.comparing(ContentCache::getLastModified));
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                Files.deleteIfExists(file);
+            } else if (name.matches("[0-9a-f]{64}")) {
+                this.add(name, Files.size(file));
+            }
+        }
+    }
+
+    /**
+     * Can a file be cached.
+     * Files without a strong etag can't be validated, and files bigger than a quarter of the cache would
+     * evict too much.
+     *
+     * @param fileSize The file size.
+     * @param etag The etag.
+     * @return True when it can be cached.
+     */
+    boolean accepts(long fileSize, String etag) {
+        return etag != null && !etag.startsWith("W/") && fileSize <= this.maxSize / 4;
+    }
+
+    /**
+     * Get the key of a file version.
+     * The key contains the server and user, so users never see each others files.
+     *
+     * @param server The Webdav server.
+     * @param username The username.
+     * @param path The absolute path.
+     * @param etag The etag of the file version.
+     * @return The key.
+     */
+    static String getKey(String server, String username, String path, String etag) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+                    String.join("\n", server, username, path, etag).getBytes(StandardCharsets.UTF_8));
+
+            return String.format("%064x", new BigInteger(1, hash));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+    }
+
+    /**
+     * Is a file version cached.
+     *
+     * @param key The key.
+     * @return True when cached.
+     */
+    synchronized boolean contains(String key) {
+        return this.entries.containsKey(key);
+    }
+
+    /**
+     * Open a cached file version.
+     *
+     * @param key The key.
+     * @param offset The offset in bytes.
+     * @return The stream starting at the offset or null when not cached anymore.
+     * @throws IOException Thrown when reading failed.
+     */
+    InputStream open(String key, long offset) throws IOException {
+        synchronized (this) {
+            if (this.entries.get(key) == null) {
+                return null;
+            }
+        }
+
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(this.directory.resolve(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException ex) {
+            this.remove(key);
+
+            return null;
+        }
+
+        // An evicted file stays readable while it is open.
+        channel.position(offset);
+
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * Cache a file version while it is downloaded.
+     * The file is only cached when the whole file has been read, a partly read file is discarded.
+     *
+     * @param key The key.
+     * @param fileSize The file size.
+     * @param inputStream The downloaded file.
+     * @return The stream returning the downloaded file.
+     * @throws IOException Thrown when the temporary file can't be created.
+     */
+    InputStream store(String key, long fileSize, InputStream inputStream) throws IOException {
+        Path temporaryFile = Files.createTempFile(this.directory, key, TEMPORARY_SUFFIX);
+
+        return new StoringInputStream(inputStream, key, fileSize, temporaryFile);
+    }
+
+    /**
+     * Add a cached file and evict the least recently used files when the cache is too big.
+     * The evicted files are deleted outside the lock, so other threads don't wait for the disk.
+     *
+     * @param key The key.
+     * @param fileSize The file size.
+     */
+    private void add(String key, long fileSize) {
+        List<String> evicted = new ArrayList<>();
+
+        synchronized (this) {
+            Long previousSize = this.entries.put(key, fileSize);
+            this.size += fileSize - (previousSize == null ? 0 : previousSize);
+
+            Iterator<Map.Entry<String, Long>> iterator = this.entries.entrySet().iterator();
+
+            while (this.size > this.maxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+
+                this.size -= eldest.getValue();
+                iterator.remove();
+                evicted.add(eldest.getKey());
+            }
+        }
+
+        for (String evictedKey : evicted) {
+            this.delete(this.directory.resolve(evictedKey));
+        }
+    }
+
+    /**
+     * Remove a file that has disappeared from the cache directory.
+     *
+     * @param key The key.
+     */
+    private synchronized void remove(String key) {
+        Long fileSize = this.entries.remove(key);
+
+        if (fileSize != null) {
+            this.size -= fileSize;
+        }
+    }
+
+    /**
+     * Delete a file, failures are logged.
+     *
+     * @param file The file.
+     */
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            logger.warn("Deleting cached file {} failed", file, ex);
+        }
+    }
+
+    /**
+     * Get the last modified time of a file for sorting, 0 when unknown.
+     *
+     * @param file The file.
+     * @return The last modified time in milliseconds.
+     */
+    private static long getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    private final class StoringInputStream extends FilterInputStream {
+
+        /**
+         * The key of the file version.
+         */
+        private final String key;
+
+        /**
+         * The file size.
+         */
+        private final long fileSize;
+
+        /**
+         * The file being written.
+         */
+        private final Path temporaryFile;
+
+        /**
+         * Writes to the temporary file, null when caching has stopped.
+         */
+        private OutputStream outputStream;
+
+        /**
+         * The amount of bytes written.
+         */
+        private long written = 0;
+
+        /**
+         * The StoringInputStream constructor.
+         *
+         * @param inputStream The downloaded file.
+         * @param key The key of the file version.
+         * @param fileSize The file size.
+         * @param temporaryFile The file being written.
+         * @throws IOException Thrown when the temporary file can't be opened.
+         */
+        private StoringInputStream(InputStream inputStream, String key, long fileSize, Path temporaryFile)
+                throws IOException {
+            super(inputStream);
+            this.key = key;
+            this.fileSize = fileSize;
+            this.temporaryFile = temporaryFile;
+            this.outputStream = Files.newOutputStream(temporaryFile);
+        }
+
+        /**
+         * Read a single byte.
+         *
+         * @return The byte or -1 at the end.
+         * @throws IOException Thrown when downloading failed.
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+
+            return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        /**
+         * Read bytes and write them to the cached file.
+         *
+         * @param bytes The destination.
+         * @param offset The offset in the destination.
+         * @param length The maximum amount of bytes.
+         * @return The amount of bytes read or -1 at the end.
+         * @throws IOException Thrown when downloading failed.
+         */
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+
+            if (read == -1) {
+                this.finish();
+            } else if (read > 0 && this.outputStream != null) {
+                try {
+                    this.outputStream.write(bytes, offset, read);
+                    this.written += read;
+                } catch (IOException ex) {
+                    // A full disk doesn't fail the download.
+                    logger.warn("Writing cached file {} failed", this.temporaryFile, ex);
+                    this.discard();
+                }
+            }
+
+            return read;
+        }
+
+        /**
+         * Skipping isn't supported, the whole file has to be written.
+         *
+         * @param bytes The amount of bytes to skip.
+         * @return The amount of bytes skipped.
+         * @throws IOException Thrown when downloading failed.
+         */
+        @Override
+        public long skip(long bytes) throws IOException {
+            byte[] discarded = new byte[(int) Math.min(8192, Math.max(0, bytes))];
+
+            return discarded.length == 0 ? 0 : Math.max(0, this.read(discarded, 0, discarded.length));
+        }
+
+        /**
+         * Close the download, the cached file is discarded when not complete.
+         *
+         * @throws IOException Thrown when closing the download failed.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.discard();
+            }
+        }
+
+        /**
+         * Add the cached file to the cache when all bytes have been written.
+         */
+        private void finish() {
+            if (this.outputStream == null) {
+                return;
+            }
+
+            if (this.written != this.fileSize) {
+                logger.debug("Not caching {}, expected {} bytes but received {}", this.key, this.fileSize,
+                        this.written);
+                this.discard();
+                return;
+            }
+
+            try {
+                this.outputStream.close();
+                this.outputStream = null;
+                Files.move(this.temporaryFile, ContentCache.this.directory.resolve(this.key),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                ContentCache.this.add(this.key, this.written);
+            } catch (IOException ex) {
+                logger.warn("Caching file {} failed", this.temporaryFile, ex);
+                this.discard();
+            }
+        }
+
+        /**
+         * Stop caching and delete the temporary file.
+         */
+        private void discard() {
+            if (this.outputStream != null) {
+                try {
+                    this.outputStream.close();
+                } catch (IOException ex) {
+                    // The file is deleted anyway.
+                }
+
+                this.outputStream = null;
+            }
+
+            ContentCache.this.delete(this.temporaryFile);
+        }
+    }
+}
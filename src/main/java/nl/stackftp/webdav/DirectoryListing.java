@@ -0,0 +1,388 @@
+package nl.stackftp.webdav;
+
+import com.github.sardine.impl.SardineException;
+import nl.stackftp.ftp.StackFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public final class DirectoryListing implements Closeable {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryListing.class);
+
+    /**
+     * The client doing the requests.
+     */
+    private final WebdavClient webdavClient;
+
+    /**
+     * The listed directory.
+     */
+    private final String path;
+
+    /**
+     * Is everything below the directory listed, or only its children.
+     */
+    private final boolean recursive;
+
+    /**
+     * The executor listing directories when the server refuses Depth: infinity.
+     */
+    private final TransferExecutor executor;
+
+    /**
+     * The maximum amount of directories listed at the same time.
+     */
+    private final int parallelListings;
+
+    /**
+     * The directories that still have to be listed.
+     */
+    private final Deque<String> directories = new ArrayDeque<>();
+
+    /**
+     * The running directory listings in the order they are returned.
+     */
+    private final Deque<Future<List<StackFile>>> listings = new ArrayDeque<>();
+
+    /**
+     * The response being read, null when the files come from the running listings.
+     */
+    private MultistatusReader reader;
+
+    /**
+     * The files of the running listing being returned.
+     */
+    private Iterator<StackFile> files = Collections.emptyIterator();
+
+    /**
+     * The children of a cached listing being returned, null when the directory is listed.
+     */
+    private Iterator<MultistatusReader.Resource> cachedChildren;
+
+    /**
+     * The children read from the response, to cache the listing. Null when not cached.
+     */
+    private List<MultistatusReader.Resource> children;
+
+    /**
+     * The metadata of the listed directory, null when unknown.
+     */
+    private FileMetadata directory;
+
+    /**
+     * The cache generation of the listed directory, -1 when not cached.
+     */
+    private long generation = -1;
+
+    /**
+     * Has the first request been done.
+     */
+    private boolean started = false;
+
+    /**
+     * Is the tree listed directory by directory.
+     */
+    private boolean crawling = false;
+
+    /**
+     * The DirectoryListing constructor.
+     * The files are read from the PROPFIND response while it is received, so memory use doesn't grow with
+     * the directory size. A listing of the children is cached, and used again as long as the etag of the
+     * directory doesn't change. A recursive listing uses a single Depth: infinity PROPFIND. When the server refuses
+     * that, the tree is listed breadth first with parallel Depth: 1 PROPFINDs.
+     *
+     * @param webdavClient The client doing the requests.
+     * @param path The directory to list. Must be absolute.
+     * @param recursive List everything below the directory instead of only its children.
+     * @param executor The executor for parallel listings.
+     * @param parallelListings The maximum amount of directories listed at the same time.
+     */
+    DirectoryListing(WebdavClient webdavClient, String path, boolean recursive, TransferExecutor executor,
+                     int parallelListings) {
+        this.webdavClient = webdavClient;
+        this.path = path;
+        this.recursive = recursive;
+        this.executor = executor;
+        this.parallelListings = Math.max(1, parallelListings);
+    }
+
+    /**
+     * Get the next file.
+     * Files are returned while the rest of the directory is still being listed.
+     *
+     * @return The file or null when all files are returned.
+     * @throws IOException Thrown when listing failed.
+     */
+    public StackFile next() throws IOException {
+        if (!this.started) {
+            this.started = true;
+            this.start();
+        }
+
+        if (this.cachedChildren != null) {
+            if (this.cachedChildren.hasNext()) {
+                return this.webdavClient.toStackFile(this.cachedChildren.next());
+            }
+
+            this.cachedChildren = null;
+            this.webdavClient.completeListing(this.path, this.generation);
+        }
+
+        while (this.reader != null) {
+            MultistatusReader.Resource resource = this.reader.next();
+
+            if (resource != null) {
+                this.record(resource);
+
+                return this.queueDirectory(this.webdavClient.toStackFile(resource));
+            }
+
+            this.reader.close();
+            this.reader = null;
+            this.webdavClient.completeListing(this.path, this.generation);
+
+            if (this.children != null && this.directory != null) {
+                this.webdavClient.cacheListing(this.path, this.directory, this.children);
+            }
+
+            this.children = null;
+        }
+
+        while (!this.files.hasNext()) {
+            this.startListings();
+
+            Future<List<StackFile>> listing = this.listings.poll();
+
+            if (listing == null) {
+                return null;
+            }
+
+            List<StackFile> fileList = this.await(listing);
+
+            for (StackFile file : fileList) {
+                this.queueDirectory(file);
+            }
+
+            this.files = fileList.iterator();
+        }
+
+        return this.files.next();
+    }
+
+    /**
+     * Get the listed directory.
+     *
+     * @return The absolute path.
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Stop listing, running requests are cancelled.
+     */
+    @Override
+    public void close() {
+        if (this.reader != null) {
+            this.reader.close();
+            this.reader = null;
+        }
+
+        this.cachedChildren = null;
+        this.children = null;
+
+        Future<List<StackFile>> listing;
+
+        while ((listing = this.listings.poll()) != null) {
+            listing.cancel(true);
+        }
+
+        this.directories.clear();
+        this.files = Collections.emptyIterator();
+    }
+
+    /**
+     * Do the first request, a Depth: infinity PROPFIND for recursive listings when the server allows it.
+     * A listing of the children is taken from the cache when the directory hasn't changed.
+     *
+     * @throws IOException Thrown when listing failed.
+     */
+    private void start() throws IOException {
+        if (!this.recursive) {
+            ListingCache.Listing listing = this.webdavClient.getValidListing(this.path);
+
+            if (listing != null) {
+                this.generation = this.webdavClient.cacheMetadata(this.path, listing.getDirectory());
+                this.cachedChildren = listing.getChildren().iterator();
+
+                return;
+            }
+
+            if (this.webdavClient.getListingCacheMaxEntries() > 0) {
+                this.children = new ArrayList<>();
+            }
+        }
+
+        if (this.recursive && this.webdavClient.isDepthInfinitySupported()) {
+            try {
+                this.reader = this.webdavClient.propfind(this.path, -1);
+                this.generation = this.cacheSelf(this.path, this.readSelf(this.reader));
+
+                return;
+            } catch (SardineException ex) {
+                // Servers refuse infinite depth with 403, older ones don't know it.
+                if (ex.getStatusCode() != 403 && ex.getStatusCode() != 400 && ex.getStatusCode() != 501) {
+                    throw ex;
+                }
+
+                logger.debug("Depth: infinity PROPFIND refused ({}), listing directories one by one",
+                        ex.getStatusCode());
+                this.webdavClient.setDepthInfinitySupported(false);
+            }
+        }
+
+        this.crawling = this.recursive;
+        this.reader = this.webdavClient.propfind(this.path, 1);
+        MultistatusReader.Resource self = this.readSelf(this.reader);
+        this.directory = self == null ? null : self.getMetadata();
+        this.generation = this.cacheSelf(this.path, self);
+    }
+
+    /**
+     * Read the first resource of a response, which is the listed directory itself.
+     *
+     * @param multistatusReader The response reader, closed when reading fails.
+     * @return The directory resource or null when the response is empty.
+     * @throws IOException Thrown when reading failed.
+     */
+    private MultistatusReader.Resource readSelf(MultistatusReader multistatusReader) throws IOException {
+        try {
+            return multistatusReader.next();
+        } catch (IOException ex) {
+            multistatusReader.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Cache the metadata of a listed directory.
+     *
+     * @param path The absolute path of the directory.
+     * @param self The directory resource, may be null.
+     * @return The cache generation of the directory, -1 when not cached.
+     */
+    private long cacheSelf(String path, MultistatusReader.Resource self) {
+        return self == null ? -1 : this.webdavClient.cacheMetadata(path, self.getMetadata());
+    }
+
+    /**
+     * Remember a child to cache the listing, until the listing gets too large to cache.
+     *
+     * @param resource The child.
+     */
+    private void record(MultistatusReader.Resource resource) {
+        if (this.children == null) {
+            return;
+        }
+
+        if (this.children.size() < this.webdavClient.getListingCacheMaxEntries()) {
+            this.children.add(resource);
+        } else {
+            this.children = null;
+        }
+    }
+
+    /**
+     * Start listing directories until the maximum amount of parallel listings is reached.
+     *
+     * @throws IOException Thrown when interrupted while waiting for the executor.
+     */
+    private void startListings() throws IOException {
+        while (this.listings.size() < this.parallelListings && !this.directories.isEmpty()) {
+            String directory = this.directories.poll();
+
+            this.listings.add(this.executor.submit(() -> this.listDirectory(directory)));
+        }
+    }
+
+    /**
+     * List a directory found while crawling.
+     * The files are kept in memory, because the listings run ahead of the files being returned.
+     *
+     * @param directory The directory.
+     * @return The files.
+     * @throws IOException Thrown when listing failed.
+     */
+    private List<StackFile> listDirectory(String directory) throws IOException {
+        List<StackFile> fileList = new ArrayList<>();
+
+        try (MultistatusReader multistatusReader = this.webdavClient.propfind(directory, 1)) {
+            long directoryGeneration = this.cacheSelf(directory, this.readSelf(multistatusReader));
+            MultistatusReader.Resource resource;
+
+            while ((resource = multistatusReader.next()) != null) {
+                fileList.add(this.webdavClient.toStackFile(resource));
+            }
+
+            this.webdavClient.completeListing(directory, directoryGeneration);
+        } catch (SardineException ex) {
+            // The directory has been removed since its parent was listed.
+            if (ex.getStatusCode() != 404) {
+                throw ex;
+            }
+        }
+
+        return fileList;
+    }
+
+    /**
+     * Queue a directory for listing while crawling.
+     *
+     * @param file The returned file.
+     * @return The file.
+     */
+    private StackFile queueDirectory(StackFile file) {
+        if (this.crawling && file.isDirectory()) {
+            this.directories.add(file.getAbsolutePath());
+        }
+
+        return file;
+    }
+
+    /**
+     * Wait for a directory listing.
+     *
+     * @param listing The listing.
+     * @return The files.
+     * @throws IOException Thrown when the listing failed.
+     */
+    private List<StackFile> await(Future<List<StackFile>> listing) throws IOException {
+        try {
+            return listing.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing " + this.path);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+
+            throw new IOException("Listing " + this.path + " failed", ex.getCause());
+        }
+    }
+}
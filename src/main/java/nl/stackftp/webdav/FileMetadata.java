@@ -0,0 +1,121 @@
+package nl.stackftp.webdav;
+
+public final class FileMetadata {
+
+    /**
+     * Metadata of a path that doesn't exist on the Webdav server.
+     */
+    private static final FileMetadata NOT_FOUND = new FileMetadata(false, false, 0, 0, null, null);
+
+    /**
+     * Does the file exist.
+     */
+    private final boolean exists;
+
+    /**
+     * Is the file a directory.
+     */
+    private final boolean directory;
+
+    /**
+     * Size of the file.
+     */
+    private final long size;
+
+    /**
+     * The last modified date of the file.
+     */
+    private final long lastModified;
+
+    /**
+     * The etag of the file, null when unknown.
+     */
+    private final String etag;
+
+    /**
+     * The media type of the file, null when unknown.
+     */
+    private final String contentType;
+
+    /**
+     * The FileMetadata constructor.
+     *
+     * @param exists Does the file exist.
+     * @param directory Is the file a directory.
+     * @param size The file size.
+     * @param lastModified The last modified date.
+     * @param etag The etag.
+     * @param contentType The media type.
+     */
+    FileMetadata(boolean exists, boolean directory, long size, long lastModified, String etag, String contentType) {
+        this.exists = exists;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Get the metadata of a path that doesn't exist.
+     *
+     * @return The metadata.
+     */
+    public static FileMetadata notFound() {
+        return NOT_FOUND;
+    }
+
+    /**
+     * Does the file exist?
+     *
+     * @return True when exists.
+     */
+    public boolean exists() {
+        return this.exists;
+    }
+
+    /**
+     * Is the file a directory?
+     *
+     * @return True when directory.
+     */
+    public boolean isDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return The size.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Get the last modified date.
+     *
+     * @return The last modified date.
+     */
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * Get the etag.
+     *
+     * @return The etag or null when unknown.
+     */
+    public String getEtag() {
+        return this.etag;
+    }
+
+    /**
+     * Get the media type.
+     *
+     * @return The media type or null when unknown.
+     */
+    public String getContentType() {
+        return this.contentType;
+    }
+}
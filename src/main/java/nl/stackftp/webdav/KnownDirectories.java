@@ -0,0 +1,97 @@
+package nl.stackftp.webdav;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+final class KnownDirectories {
+
+    /**
+     * The System.nanoTime() at which a directory expires, by directory known to exist, in least recently used order.
+     */
+    private final LinkedHashMap<String, Long> directories;
+
+    /**
+     * The time to live of a directory in nanoseconds.
+     */
+    private final long ttl;
+
+    /**
+     * The KnownDirectories constructor.
+     * Remembers directories that exist on the Webdav server, so creating them again can be skipped.
+     * Directories are forgotten when they expire, are removed or moved through this server, or an upload into them
+     * fails.
+     *
+     * @param ttl The time to live of a directory in seconds. 0 disables it.
+     * @param maxEntries The maximum amount of directories. 0 disables it.
+     */
+    KnownDirectories(int ttl, int maxEntries) {
+        int max = ttl > 0 ? Math.max(0, maxEntries) : 0;
+
+        this.ttl = TimeUnit.SECONDS.toNanos(Math.max(0, ttl));
+        this.directories = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return this.size() > max;
+            }
+        };
+    }
+
+    /**
+     * Is a directory known to exist. The root always exists.
+     *
+     * @param path The absolute path.
+     * @return True when known.
+     */
+    synchronized boolean contains(String path) {
+        if (path.equals("/")) {
+            return true;
+        }
+
+        Long expires = this.directories.get(path);
+
+        if (expires != null && expires - System.nanoTime() < 0) {
+            this.directories.remove(path);
+            expires = null;
+        }
+
+        return expires != null;
+    }
+
+    /**
+     * Remember that a directory and all its parents exist.
+     *
+     * @param path The absolute path.
+     */
+    synchronized void add(String path) {
+        String directory = path;
+        Long expires = System.nanoTime() + this.ttl;
+
+        while (directory.length() > 1) {
+            this.directories.put(directory, expires);
+
+            int separatorIndex = directory.lastIndexOf('/');
+            directory = separatorIndex <= 0 ? "/" : directory.substring(0, separatorIndex);
+        }
+    }
+
+    /**
+     * Forget a path and everything below it.
+     *
+     * @param path The absolute path.
+     */
+    synchronized void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + '/';
+
+        this.directories.remove(path);
+
+        Iterator<String> iterator = this.directories.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+}
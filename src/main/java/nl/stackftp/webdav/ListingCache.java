@@ -0,0 +1,186 @@
+package nl.stackftp.webdav;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class ListingCache {
+
+    /**
+     * The cached listings by absolute directory path, in least recently used order.
+     */
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The maximum amount of resources in all listings together.
+     */
+    private final int maxResources;
+
+    /**
+     * The amount of resources in all listings together.
+     */
+    private int resources = 0;
+
+    /**
+     * The ListingCache constructor.
+     * Listings don't expire, they are revalidated with the etag of the directory before they are used.
+     *
+     * @param maxResources The maximum amount of resources in all listings together. 0 disables the cache.
+     */
+    ListingCache(int maxResources) {
+        this.maxResources = Math.max(0, maxResources);
+    }
+
+    /**
+     * Get the maximum amount of resources of a single listing.
+     *
+     * @return The amount of resources, 0 when caching is disabled.
+     */
+    int getMaxResources() {
+        return this.maxResources;
+    }
+
+    /**
+     * Get the cached listing of a directory.
+     *
+     * @param path The absolute path of the directory.
+     * @return The listing or null when not cached.
+     */
+    synchronized Listing get(String path) {
+        return this.listings.get(path);
+    }
+
+    /**
+     * Cache the listing of a directory.
+     * The directory must have an etag or last modified date to revalidate the listing with.
+     *
+     * @param path The absolute path of the directory.
+     * @param directory The metadata of the directory.
+     * @param children The children of the directory.
+     */
+    synchronized void put(String path, FileMetadata directory, List<MultistatusReader.Resource> children) {
+        if (children.size() > this.maxResources || !isValidator(directory)) {
+            return;
+        }
+
+        this.remove(path);
+        this.listings.put(path, new Listing(directory, children));
+        this.resources += children.size();
+
+        Iterator<Listing> iterator = this.listings.values().iterator();
+
+        while (this.resources > this.maxResources && iterator.hasNext()) {
+            this.resources -= iterator.next().children.size();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Remove a path, everything below it and its parent directory from the cache.
+     *
+     * @param path The absolute path.
+     */
+    synchronized void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + '/';
+        int separatorIndex = path.lastIndexOf('/');
+
+        this.remove(path);
+        this.remove(separatorIndex <= 0 ? "/" : path.substring(0, separatorIndex));
+
+        Iterator<Map.Entry<String, Listing>> iterator = this.listings.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, Listing> entry = iterator.next();
+
+            if (entry.getKey().startsWith(prefix)) {
+                this.resources -= entry.getValue().children.size();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove a listing.
+     *
+     * @param path The absolute path of the directory.
+     */
+    private void remove(String path) {
+        Listing listing = this.listings.remove(path);
+
+        if (listing != null) {
+            this.resources -= listing.children.size();
+        }
+    }
+
+    /**
+     * Can the metadata of a directory tell if it has changed.
+     *
+     * @param directory The metadata.
+     * @return True when it has an etag or last modified date.
+     */
+    private static boolean isValidator(FileMetadata directory) {
+        return directory.getEtag() != null || directory.getLastModified() > 0;
+    }
+
+    static final class Listing {
+
+        /**
+         * The metadata of the directory when it was listed.
+         */
+        private final FileMetadata directory;
+
+        /**
+         * The children of the directory.
+         */
+        private final List<MultistatusReader.Resource> children;
+
+        /**
+         * The Listing constructor.
+         *
+         * @param directory The metadata of the directory.
+         * @param children The children of the directory.
+         */
+        private Listing(FileMetadata directory, List<MultistatusReader.Resource> children) {
+            this.directory = directory;
+            this.children = children;
+        }
+
+        /**
+         * Get the metadata of the directory when it was listed.
+         *
+         * @return The metadata.
+         */
+        FileMetadata getDirectory() {
+            return this.directory;
+        }
+
+        /**
+         * Get the children of the directory.
+         *
+         * @return The children.
+         */
+        List<MultistatusReader.Resource> getChildren() {
+            return this.children;
+        }
+
+        /**
+         * Is the directory unchanged since it was listed.
+         * The etag is compared when known, otherwise the last modified date.
+         *
+         * @param current The current metadata of the directory.
+         * @return True when unchanged.
+         */
+        boolean isValid(FileMetadata current) {
+            if (!current.exists() || !current.isDirectory()) {
+                return false;
+            }
+
+            if (this.directory.getEtag() != null) {
+                return this.directory.getEtag().equals(current.getEtag());
+            }
+
+            return this.directory.getLastModified() == current.getLastModified();
+        }
+    }
+}
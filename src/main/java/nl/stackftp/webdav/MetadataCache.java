@@ -0,0 +1,244 @@
+package nl.stackftp.webdav;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+final class MetadataCache {
+
+    /**
+     * The cached entries by absolute path, in least recently used order.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * The time to live of an entry in nanoseconds.
+     */
+    private final long ttl;
+
+    /**
+     * The maximum amount of entries.
+     */
+    private final int maxEntries;
+
+    /**
+     * The generation of the next entry.
+     */
+    private long nextGeneration = 0;
+
+    /**
+     * The MetadataCache constructor.
+     *
+     * @param ttl The time to live of an entry in seconds. 0 disables the cache.
+     * @param maxEntries The maximum amount of entries.
+     */
+    MetadataCache(int ttl, int maxEntries) {
+        this.ttl = TimeUnit.SECONDS.toNanos(Math.max(0, ttl));
+        this.maxEntries = Math.max(0, maxEntries);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            // Qualified, inside a LinkedHashMap the simple name Entry is LinkedHashMap.Entry on newer JDKs.
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MetadataCache.Entry> eldest) {
+                if (this.size() <= MetadataCache.this.maxEntries) {
+                    return false;
+                }
+
+                eldest.getValue().removed();
+
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Is caching enabled.
+     *
+     * @return True when enabled.
+     */
+    boolean isEnabled() {
+        return this.ttl > 0 && this.maxEntries > 0;
+    }
+
+    /**
+     * Get the cached metadata of a path.
+     * A path that isn't cached doesn't exist when its parent directory has been listed completely.
+     *
+     * @param path The absolute path.
+     * @return The metadata or null when not cached or expired.
+     */
+    synchronized FileMetadata get(String path) {
+        Entry entry = this.getEntry(path);
+
+        if (entry != null) {
+            return entry.metadata;
+        }
+
+        Entry parent = path.equals("/") ? null : this.getEntry(parentOf(path));
+
+        return parent != null && parent.complete ? FileMetadata.notFound() : null;
+    }
+
+    /**
+     * Cache the metadata of a path.
+     *
+     * @param path The absolute path.
+     * @param metadata The metadata.
+     * @return The generation of the entry, used to mark a directory listing complete.
+     */
+    synchronized long put(String path, FileMetadata metadata) {
+        if (!this.isEnabled()) {
+            return -1;
+        }
+
+        long generation = this.nextGeneration++;
+        Entry parent = path.equals("/") ? null : this.entries.get(parentOf(path));
+
+        this.entries.put(path, new Entry(metadata, System.nanoTime() + this.ttl, generation, parent));
+
+        return generation;
+    }
+
+    /**
+     * Remember that all children of a directory have been cached.
+     * Only done when the directory entry is still the one cached when the listing started
+     * and none of its children has been removed since.
+     *
+     * @param path The absolute path of the directory.
+     * @param generation The generation returned when caching the directory.
+     */
+    synchronized void markComplete(String path, long generation) {
+        Entry entry = this.entries.get(path);
+
+        if (entry != null && entry.generation == generation && !entry.childRemoved
+                && entry.metadata.isDirectory()) {
+            entry.complete = true;
+        }
+    }
+
+    /**
+     * Remove a path, everything below it and its parent directory from the cache.
+     * The parent is removed because its size and last modified date change with its children.
+     *
+     * @param path The absolute path.
+     */
+    synchronized void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + '/';
+
+        this.remove(path);
+        this.remove(parentOf(path));
+
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().removed();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Get an unexpired entry, removing it when expired.
+     *
+     * @param path The absolute path.
+     * @return The entry or null.
+     */
+    private Entry getEntry(String path) {
+        Entry entry = this.entries.get(path);
+
+        if (entry != null && entry.expires - System.nanoTime() < 0) {
+            this.remove(path);
+
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param path The absolute path.
+     */
+    private void remove(String path) {
+        Entry entry = this.entries.remove(path);
+
+        if (entry != null) {
+            entry.removed();
+        }
+    }
+
+    /**
+     * Get the parent path of an absolute path.
+     *
+     * @param path The absolute path.
+     * @return The parent path.
+     */
+    private static String parentOf(String path) {
+        int separatorIndex = path.lastIndexOf('/');
+
+        return separatorIndex <= 0 ? "/" : path.substring(0, separatorIndex);
+    }
+
+    private static final class Entry {
+
+        /**
+         * The cached metadata.
+         */
+        private final FileMetadata metadata;
+
+        /**
+         * The System.nanoTime() at which this entry expires.
+         */
+        private final long expires;
+
+        /**
+         * The generation of this entry, unique within the cache.
+         */
+        private final long generation;
+
+        /**
+         * The entry of the parent directory when this entry was cached, null when not cached.
+         */
+        private final Entry parent;
+
+        /**
+         * Are all children of this directory cached.
+         */
+        private boolean complete = false;
+
+        /**
+         * Has a child of this directory been removed from the cache.
+         */
+        private boolean childRemoved = false;
+
+        /**
+         * The Entry constructor.
+         *
+         * @param metadata The metadata.
+         * @param expires The expire time.
+         * @param generation The generation.
+         * @param parent The entry of the parent directory.
+         */
+        private Entry(FileMetadata metadata, long expires, long generation, Entry parent) {
+            this.metadata = metadata;
+            this.expires = expires;
+            this.generation = generation;
+            this.parent = parent;
+        }
+
+        /**
+         * Called when this entry is removed from the cache.
+         * The parent listing isn't complete anymore, because this child is missing from it.
+         */
+        private void removed() {
+            if (this.parent != null) {
+                this.parent.childRemoved = true;
+                this.parent.complete = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package nl.stackftp.webdav;
+
+import com.github.sardine.util.SardineUtil;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+final class MultistatusReader implements Closeable {
+
+    /**
+     * The namespace of the Webdav elements.
+     */
+    private static final String DAV_NAMESPACE = "DAV:";
+
+    /**
+     * The PROPFIND request body, it asks for exactly the properties this reader uses.
+     * Asking for all properties makes the server compute quota, checksums, shares and more for every resource.
+     */
+    static final String PROPFIND_BODY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<d:propfind xmlns:d=\"DAV:\"><d:prop>"
+            + "<d:resourcetype/><d:getcontentlength/><d:getlastmodified/><d:getetag/><d:getcontenttype/>"
+            + "</d:prop></d:propfind>";
+
+    /**
+     * The PROPFIND request body asking only for the properties that tell if a resource changed.
+     * The response of an unchanged directory is a few hundred bytes, instead of a full listing.
+     */
+    static final String VALIDATOR_PROPFIND_BODY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<d:propfind xmlns:d=\"DAV:\"><d:prop>"
+            + "<d:resourcetype/><d:getlastmodified/><d:getetag/>"
+            + "</d:prop></d:propfind>";
+
+    /**
+     * Creates the XML readers, without DTD and external entity support.
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /**
+     * The PROPFIND request.
+     */
+    private final HttpRequestBase request;
+
+    /**
+     * The PROPFIND response.
+     */
+    private final HttpResponse response;
+
+    /**
+     * The response body.
+     */
+    private final InputStream inputStream;
+
+    /**
+     * The XML reader of the response body.
+     */
+    private final XMLStreamReader reader;
+
+    /**
+     * Has the whole response been read.
+     */
+    private boolean finished = false;
+
+    /**
+     * The MultistatusReader constructor.
+     * Reads the resources of a PROPFIND response one by one while the response is received,
+     * so the memory use doesn't depend on the amount of resources.
+     *
+     * @param request The PROPFIND request.
+     * @param response The successful PROPFIND response.
+     * @throws IOException Thrown when the response isn't XML.
+     */
+    MultistatusReader(HttpRequestBase request, HttpResponse response) throws IOException {
+        this.request = request;
+        this.response = response;
+        this.inputStream = response.getEntity().getContent();
+
+        try {
+            this.reader = XML_INPUT_FACTORY.createXMLStreamReader(this.inputStream);
+        } catch (XMLStreamException ex) {
+            this.close();
+            throw new IOException("Invalid PROPFIND response", ex);
+        }
+    }
+
+    /**
+     * Read the next resource.
+     * Resources with an error status are skipped.
+     *
+     * @return The resource or null at the end of the response.
+     * @throws IOException Thrown when reading failed or the response is invalid.
+     */
+    Resource next() throws IOException {
+        try {
+            while (!this.finished && this.reader.hasNext()) {
+                if (this.reader.next() == XMLStreamConstants.START_ELEMENT && this.isDav("response")) {
+                    Resource resource = this.readResponse();
+
+                    if (resource != null) {
+                        return resource;
+                    }
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Invalid PROPFIND response", ex);
+        }
+
+        this.finished = true;
+
+        return null;
+    }
+
+    /**
+     * Release the connection.
+     * When the response hasn't been read completely the connection is closed instead of reading the rest.
+     */
+    @Override
+    public void close() {
+        try {
+            if (this.reader != null) {
+                this.reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            // The connection is released below.
+        }
+
+        if (this.finished) {
+            EntityUtils.consumeQuietly(this.response.getEntity());
+        } else {
+            this.request.abort();
+        }
+    }
+
+    /**
+     * Read a response element.
+     *
+     * @return The resource or null when it has an error status.
+     * @throws XMLStreamException Thrown when the XML is invalid.
+     * @throws IOException Thrown when the href is invalid.
+     */
+    private Resource readResponse() throws XMLStreamException, IOException {
+        String href = null;
+        int status = 200;
+        Properties properties = new Properties();
+
+        while (this.reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (this.isDav("href")) {
+                href = this.reader.getElementText().trim();
+            } else if (this.isDav("propstat")) {
+                this.readPropstat(properties);
+            } else if (this.isDav("status")) {
+                status = parseStatus(this.reader.getElementText());
+            } else {
+                this.skipElement();
+            }
+        }
+
+        if (href == null || status / 100 != 2) {
+            return null;
+        }
+
+        try {
+            return new Resource(PathCodec.decode(PathCodec.getPath(href)), properties.toMetadata());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid href " + href, ex);
+        }
+    }
+
+    /**
+     * Read a propstat element.
+     * The properties are only used when the propstat has a successful status.
+     *
+     * @param properties The properties of the resource.
+     * @throws XMLStreamException Thrown when the XML is invalid.
+     */
+    private void readPropstat(Properties properties) throws XMLStreamException {
+        Properties propstatProperties = new Properties();
+        int status = 200;
+
+        while (this.reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (this.isDav("prop")) {
+                this.readProp(propstatProperties);
+            } else if (this.isDav("status")) {
+                status = parseStatus(this.reader.getElementText());
+            } else {
+                this.skipElement();
+            }
+        }
+
+        if (status / 100 == 2) {
+            properties.merge(propstatProperties);
+        }
+    }
+
+    /**
+     * Read a prop element.
+     *
+     * @param properties The properties to fill.
+     * @throws XMLStreamException Thrown when the XML is invalid.
+     */
+    private void readProp(Properties properties) throws XMLStreamException {
+        while (this.reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (this.isDav("resourcetype")) {
+                properties.directory = this.readResourceType();
+            } else if (this.isDav("getcontentlength")) {
+                properties.contentLength = this.readText();
+            } else if (this.isDav("getlastmodified")) {
+                properties.lastModified = this.readText();
+            } else if (this.isDav("getetag")) {
+                properties.etag = this.readText();
+            } else if (this.isDav("getcontenttype")) {
+                properties.contentType = this.readText();
+            } else {
+                this.skipElement();
+            }
+        }
+    }
+
+    /**
+     * Read a resourcetype element.
+     *
+     * @return True when it contains a collection element.
+     * @throws XMLStreamException Thrown when the XML is invalid.
+     */
+    private boolean readResourceType() throws XMLStreamException {
+        boolean collection = false;
+
+        while (this.reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            collection |= this.isDav("collection");
+            this.skipElement();
+        }
+
+        return collection;
+    }
+
+    /**
+     * Read the text of an element that may contain child elements.
+     *
+     * @return The trimmed text.
+     * @throws XMLStreamException Thrown when the XML is invalid.
+     */
+    private String readText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+
+        while (depth > 0) {
+            int event = this.reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                text.append(this.reader.getText());
+            }
+        }
+
+        return text.toString().trim();
+    }
+
+    /**
+     * Skip the current element with everything in it.
+     *
+     * @throws XMLStreamException Thrown when the XML is invalid.
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+
+        while (depth > 0) {
+            int event = this.reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Is the current element a Webdav element.
+     *
+     * @param localName The element name without namespace.
+     * @return True when it is.
+     */
+    private boolean isDav(String localName) {
+        return DAV_NAMESPACE.equals(this.reader.getNamespaceURI()) && localName.equals(this.reader.getLocalName());
+    }
+
+    /**
+     * Parse the code of a status line like "HTTP/1.1 200 OK".
+     *
+     * @param statusLine The status line.
+     * @return The status code, 500 when invalid.
+     */
+    private static int parseStatus(String statusLine) {
+        String[] parts = statusLine.trim().split(" ");
+
+        try {
+            return parts.length < 2 ? 500 : Integer.parseInt(parts[1]);
+        } catch (NumberFormatException ex) {
+            return 500;
+        }
+    }
+
+    /**
+     * Create the XML input factory.
+     *
+     * @return The factory.
+     */
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        return factory;
+    }
+
+    static final class Resource {
+
+        /**
+         * The decoded path of the resource.
+         */
+        private final String path;
+
+        /**
+         * The metadata of the resource.
+         */
+        private final FileMetadata metadata;
+
+        /**
+         * The Resource constructor.
+         *
+         * @param path The decoded path.
+         * @param metadata The metadata.
+         */
+        private Resource(String path, FileMetadata metadata) {
+            this.path = path;
+            this.metadata = metadata;
+        }
+
+        /**
+         * Get the decoded path of the resource, like /remote.php/webdav/dir/file.
+         *
+         * @return The path.
+         */
+        String getPath() {
+            return this.path;
+        }
+
+        /**
+         * Get the metadata of the resource.
+         *
+         * @return The metadata.
+         */
+        FileMetadata getMetadata() {
+            return this.metadata;
+        }
+    }
+
+    private static final class Properties {
+
+        /**
+         * Is the resource a collection.
+         */
+        private boolean directory = false;
+
+        /**
+         * The getcontentlength value.
+         */
+        private String contentLength;
+
+        /**
+         * The getlastmodified value.
+         */
+        private String lastModified;
+
+        /**
+         * The getetag value.
+         */
+        private String etag;
+
+        /**
+         * The getcontenttype value.
+         */
+        private String contentType;
+
+        /**
+         * Add the properties of another propstat.
+         *
+         * @param other The other properties.
+         */
+        private void merge(Properties other) {
+            this.directory |= other.directory;
+            this.contentLength = other.contentLength != null ? other.contentLength : this.contentLength;
+            this.lastModified = other.lastModified != null ? other.lastModified : this.lastModified;
+            this.etag = other.etag != null ? other.etag : this.etag;
+            this.contentType = other.contentType != null ? other.contentType : this.contentType;
+        }
+
+        /**
+         * Convert the properties to metadata.
+         *
+         * @return The metadata.
+         */
+        private FileMetadata toMetadata() {
+            long size = 0;
+
+            try {
+                // To prevent directories not appearing set the minimum size to 0.
+                size = this.contentLength == null || this.contentLength.isEmpty()
+                        ? 0 : Math.max(0, Long.parseLong(this.contentLength));
+            } catch (NumberFormatException ex) {
+                // Keep size 0.
+            }
+
+            Date modified = SardineUtil.parseDate(this.lastModified);
+
+            return new FileMetadata(true, this.directory, size, modified == null ? 0 : modified.getTime(),
+                    emptyToNull(this.etag), this.directory ? null : emptyToNull(this.contentType));
+        }
+
+        /**
+         * Convert an empty property value to null.
+         *
+         * @param value The value.
+         * @return The value or null when empty.
+         */
+        private static String emptyToNull(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+    }
+}
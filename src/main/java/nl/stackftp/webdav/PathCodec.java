@@ -0,0 +1,234 @@
+package nl.stackftp.webdav;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class PathCodec {
+
+    /**
+     * The hexadecimal digits of percent encoding.
+     */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The maximum amount of cached encoded paths.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * The base url, without trailing slash.
+     */
+    private final String baseUrl;
+
+    /**
+     * The decoded path of the base url, without trailing slash.
+     */
+    private final String basePath;
+
+    /**
+     * The recently encoded paths.
+     */
+    private final Map<String, String> encodedPaths = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return this.size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * The PathCodec constructor.
+     * Converts between ftp paths and urls below a base url.
+     *
+     * @param baseUrl The base url, like https://host/remote.php/webdav.
+     */
+    PathCodec(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.basePath = decode(getPath(this.baseUrl));
+    }
+
+    /**
+     * Get the url of a path.
+     *
+     * @param path The absolute ftp path.
+     * @return The url.
+     */
+    String toUrl(String path) {
+        synchronized (this.encodedPaths) {
+            String encodedPath = this.encodedPaths.get(path);
+
+            if (encodedPath == null) {
+                encodedPath = encodePath(path);
+                this.encodedPaths.put(path, encodedPath);
+            }
+
+            return this.baseUrl + encodedPath;
+        }
+    }
+
+    /**
+     * Get the ftp path of a decoded resource path, like /remote.php/webdav/dir/ for /dir.
+     *
+     * @param resourcePath The decoded resource path.
+     * @return The absolute ftp path, without trailing slash.
+     * @throws IOException Thrown when the resource isn't below the base url.
+     */
+    String toPath(String resourcePath) throws IOException {
+        if (!resourcePath.startsWith(this.basePath)
+                || (resourcePath.length() > this.basePath.length()
+                && resourcePath.charAt(this.basePath.length()) != '/')) {
+            throw new IOException("Resource " + resourcePath + " is not below " + this.basePath);
+        }
+
+        String path = resourcePath.substring(this.basePath.length());
+
+        // Directories have a trailing slash, the ftp paths don't.
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        return path.isEmpty() ? "/" : path;
+    }
+
+    /**
+     * Percent encode a path, the slashes are kept.
+     *
+     * @param path The path.
+     * @return The encoded path, the same instance when nothing needs encoding.
+     */
+    static String encodePath(String path) {
+        return encode(path, true);
+    }
+
+    /**
+     * Percent encode a single path segment, slashes are encoded too.
+     *
+     * @param segment The segment.
+     * @return The encoded segment.
+     */
+    static String encodeSegment(String segment) {
+        return encode(segment, false);
+    }
+
+    /**
+     * Percent decode a path.
+     *
+     * @param encoded The encoded path.
+     * @return The decoded path, the same instance when nothing is encoded.
+     * @throws IllegalArgumentException Thrown when an escape is invalid.
+     */
+    static String decode(String encoded) {
+        int percentIndex = encoded.indexOf('%');
+
+        if (percentIndex == -1) {
+            return encoded;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded.length());
+        byte[] prefix = encoded.substring(0, percentIndex).getBytes(StandardCharsets.UTF_8);
+        bytes.write(prefix, 0, prefix.length);
+
+        for (int i = percentIndex; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+
+            if (c == '%') {
+                if (i + 2 >= encoded.length()) {
+                    throw new IllegalArgumentException("Invalid escape in " + encoded);
+                }
+
+                int high = Character.digit(encoded.charAt(i + 1), 16);
+                int low = Character.digit(encoded.charAt(i + 2), 16);
+
+                if (high == -1 || low == -1) {
+                    throw new IllegalArgumentException("Invalid escape in " + encoded);
+                }
+
+                bytes.write(high << 4 | low);
+                i += 2;
+            } else if (c < 0x80) {
+                bytes.write(c);
+            } else {
+                // Servers may send unencoded non-ASCII characters.
+                int end = i + 1;
+
+                while (end < encoded.length() && encoded.charAt(end) != '%' && encoded.charAt(end) >= 0x80) {
+                    end++;
+                }
+
+                byte[] utf8 = encoded.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                bytes.write(utf8, 0, utf8.length);
+                i = end - 1;
+            }
+        }
+
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the path of a url or href, which may be absolute or only a path.
+     *
+     * @param href The url or href.
+     * @return The encoded path.
+     */
+    static String getPath(String href) {
+        int schemeIndex = href.indexOf("://");
+        String path = href;
+
+        if (schemeIndex != -1) {
+            int pathIndex = href.indexOf('/', schemeIndex + 3);
+            path = pathIndex == -1 ? "/" : href.substring(pathIndex);
+        }
+
+        int queryIndex = path.indexOf('?');
+
+        return queryIndex == -1 ? path : path.substring(0, queryIndex);
+    }
+
+    /**
+     * Percent encode everything except the unreserved characters of RFC 3986.
+     *
+     * @param value The value.
+     * @param keepSlashes Keep the slashes.
+     * @return The encoded value, the same instance when nothing needs encoding.
+     */
+    private static String encode(String value, boolean keepSlashes) {
+        int i = 0;
+
+        while (i < value.length() && isUnreserved(value.charAt(i), keepSlashes)) {
+            i++;
+        }
+
+        if (i == value.length()) {
+            return value;
+        }
+
+        StringBuilder encoded = new StringBuilder(value.length() + 16).append(value, 0, i);
+        byte[] bytes = value.substring(i).getBytes(StandardCharsets.UTF_8);
+
+        for (byte b : bytes) {
+            char c = (char) (b & 0xff);
+
+            if (isUnreserved(c, keepSlashes)) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+            }
+        }
+
+        return encoded.toString();
+    }
+
+    /**
+     * Is a character unreserved, so it doesn't need encoding.
+     *
+     * @param c The character.
+     * @param slash Is a slash unreserved.
+     * @return True when unreserved.
+     */
+    private static boolean isUnreserved(char c, boolean slash) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~' || (slash && c == '/');
+    }
+}
@@ -1,9 +1,10 @@
 package nl.stackftp.webdav;
 
-import com.github.sardine.Sardine;
-import com.github.sardine.impl.SardineImpl;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
 
 final class SardineFactory {
@@ -13,14 +14,33 @@ final class SardineFactory {
      *
      * @param username The username.
      * @param password The password.
+     * @param connectionManager The connection pool shared by all users.
+     * @param connectTimeout The connect timeout in milliseconds.
+     * @param socketTimeout The socket read timeout in milliseconds.
+     * @param keepAlive The maximum time in milliseconds an idle connection is kept open.
      * @return The Sardine instance.
      */
-    public static Sardine begin(String username, String password) {
-        Sardine sardine = new SardineImpl(
+    public static StackSardine begin(String username, String password, HttpClientConnectionManager connectionManager,
+                                     int connectTimeout, int socketTimeout, long keepAlive) {
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            // Use the keep alive of the server when it's shorter.
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+        };
+
+        StackSardine sardine = new StackSardine(
                 HttpClients.custom()
                         .setUserAgent("StackFtp")
+                        // The pool is shared by all users, closing the client of a user must not close it.
+                        .setConnectionManager(connectionManager)
+                        .setConnectionManagerShared(true)
+                        .setKeepAliveStrategy(keepAliveStrategy)
                         .setDefaultRequestConfig(RequestConfig.custom()
-                                .setCookieSpec(CookieSpecs.STANDARD).build()));
+                                .setCookieSpec(CookieSpecs.STANDARD)
+                                .setConnectTimeout(connectTimeout)
+                                .setConnectionRequestTimeout(connectTimeout)
+                                .setSocketTimeout(socketTimeout).build()));
 
         sardine.setCredentials(username, password);
 
@@ -0,0 +1,271 @@
+package nl.stackftp.webdav;
+
+import com.github.sardine.impl.SardineException;
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+final class SegmentedInputStream extends InputStream {
+
+    /**
+     * The client doing the requests.
+     */
+    private final StackSardine sardine;
+
+    /**
+     * The file url.
+     */
+    private final String url;
+
+    /**
+     * The etag of the downloaded version, null when unknown.
+     */
+    private final String etag;
+
+    /**
+     * The file size.
+     */
+    private final long size;
+
+    /**
+     * The size of a segment in bytes.
+     */
+    private final int segmentSize;
+
+    /**
+     * The maximum amount of segments downloading at the same time.
+     */
+    private final int parallelSegments;
+
+    /**
+     * The executor downloading the segments.
+     */
+    private final TransferExecutor downloadExecutor;
+
+    /**
+     * The downloading segments in file order.
+     */
+    private final Deque<Future<byte[]>> segments = new ArrayDeque<>();
+
+    /**
+     * The offset of the next segment to download.
+     */
+    private long nextSegmentOffset;
+
+    /**
+     * The offset of the next byte returned by this stream.
+     */
+    private long position;
+
+    /**
+     * The segment being read.
+     */
+    private byte[] segment;
+
+    /**
+     * The read position in the segment.
+     */
+    private int segmentPosition = 0;
+
+    /**
+     * The single request stream used when the server doesn't support range requests.
+     */
+    private InputStream fallback;
+
+    /**
+     * Is the stream closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The SegmentedInputStream constructor.
+     * Downloads a file as segments fetched with parallel range requests and returns them in order.
+     * At most the configured amount of segments is downloaded ahead, which bounds the memory use.
+     * Every segment must belong to the same version of the file. When the file has changed before the first byte
+     * is returned the new version is downloaded with a single request, later the download fails.
+     *
+     * @param sardine The client doing the requests.
+     * @param url The file url.
+     * @param etag The etag of the file, null when unknown.
+     * @param offset The offset to start at.
+     * @param size The file size.
+     * @param segmentSize The size of a segment in bytes.
+     * @param parallelSegments The maximum amount of segments downloading at the same time.
+     * @param downloadExecutor The executor downloading the segments.
+     * @throws IOException Thrown when the download can't be started.
+     */
+    SegmentedInputStream(StackSardine sardine, String url, String etag, long offset, long size, int segmentSize,
+                         int parallelSegments, TransferExecutor downloadExecutor) throws IOException {
+        this.sardine = sardine;
+        this.url = url;
+        this.etag = etag;
+        this.size = size;
+        this.segmentSize = Math.max(1, segmentSize);
+        this.parallelSegments = Math.max(1, parallelSegments);
+        this.downloadExecutor = downloadExecutor;
+        this.nextSegmentOffset = offset;
+        this.position = offset;
+
+        this.startSegments();
+    }
+
+    /**
+     * Read a single byte.
+     *
+     * @return The byte or -1 at the end.
+     * @throws IOException Thrown when downloading failed.
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+
+        return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    /**
+     * Read bytes.
+     *
+     * @param bytes The destination.
+     * @param offset The offset in the destination.
+     * @param length The maximum amount of bytes.
+     * @return The amount of bytes read or -1 at the end.
+     * @throws IOException Thrown when downloading failed.
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (this.fallback != null) {
+            return this.fallback.read(bytes, offset, length);
+        }
+
+        if (length == 0) {
+            return 0;
+        }
+
+        if (this.segment == null || this.segmentPosition == this.segment.length) {
+            Future<byte[]> next = this.segments.poll();
+
+            if (next == null) {
+                return -1;
+            }
+
+            try {
+                this.segment = this.await(next);
+            } catch (SardineException ex) {
+                if (ex.getStatusCode() != HttpStatus.SC_PRECONDITION_FAILED) {
+                    throw ex;
+                }
+
+                this.cancelSegments();
+
+                if (this.position > 0) {
+                    throw new IOException(this.url + " changed during the download", ex);
+                }
+
+                // Changed before anything was returned, download the new version with a single request.
+                this.fallback = this.sardine.get(this.url);
+
+                return this.fallback.read(bytes, offset, length);
+            }
+
+            this.segmentPosition = 0;
+
+            if (this.segment == null) {
+                // The server ignores ranges, download the rest of the same version with a single request.
+                this.cancelSegments();
+                this.fallback = this.sardine.get(this.url, this.position, this.etag);
+
+                return this.fallback.read(bytes, offset, length);
+            }
+
+            this.startSegments();
+        }
+
+        int chunk = Math.min(length, this.segment.length - this.segmentPosition);
+        System.arraycopy(this.segment, this.segmentPosition, bytes, offset, chunk);
+        this.segmentPosition += chunk;
+        this.position += chunk;
+
+        return chunk;
+    }
+
+    /**
+     * Stop all downloads.
+     *
+     * @throws IOException Thrown when closing the fallback stream failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.segment = null;
+        this.cancelSegments();
+
+        if (this.fallback != null) {
+            this.fallback.close();
+        }
+    }
+
+    /**
+     * Start downloading segments until the maximum amount of parallel segments is reached.
+     *
+     * @throws IOException Thrown when interrupted while waiting for the executor.
+     */
+    private void startSegments() throws IOException {
+        while (this.segments.size() < this.parallelSegments && this.nextSegmentOffset < this.size) {
+            long start = this.nextSegmentOffset;
+            int length = (int) Math.min(this.segmentSize, this.size - start);
+
+            this.segments.add(this.downloadExecutor.submit(() ->
+                    this.sardine.getRange(this.url, start, length, this.etag, this.size)));
+            this.nextSegmentOffset += length;
+        }
+    }
+
+    /**
+     * Cancel all downloading segments.
+     */
+    private void cancelSegments() {
+        Future<byte[]> future;
+
+        while ((future = this.segments.poll()) != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Wait for a segment.
+     *
+     * @param future The segment download.
+     * @return The segment or null when the server doesn't support range requests.
+     * @throws IOException Thrown when downloading the segment failed.
+     */
+    private byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a download segment");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException("Downloading segment failed", cause);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package nl.stackftp.webdav;
+
+import com.github.sardine.impl.SardineException;
+import com.github.sardine.impl.SardineImpl;
+import com.github.sardine.impl.handler.VoidResponseHandler;
+import com.github.sardine.impl.io.ContentLengthInputStream;
+import com.github.sardine.impl.io.HttpMethodReleaseInputStream;
+import com.github.sardine.impl.methods.HttpMove;
+import com.github.sardine.impl.methods.HttpPropFind;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+final class StackSardine extends SardineImpl {
+
+    /**
+     * The StackSardine constructor.
+     * Sardine with the extra requests StackFtp needs.
+     *
+     * @param builder The HTTP client configuration.
+     */
+    StackSardine(HttpClientBuilder builder) {
+        super(builder);
+    }
+
+    /**
+     * Get a file starting at an offset.
+     * A Range request is used, when the server ignores it the skipped bytes are read and discarded.
+     *
+     * @param url The file url.
+     * @param offset The offset in bytes.
+     * @return The file input stream starting at the offset.
+     * @throws IOException Thrown when getting the file failed.
+     */
+    ContentLengthInputStream get(String url, long offset) throws IOException {
+        return this.get(url, offset, null);
+    }
+
+    /**
+     * Get a file starting at an offset when it still has an etag.
+     * A Range request is used, when the server ignores it the skipped bytes are read and discarded.
+     *
+     * @param url The file url.
+     * @param offset The offset in bytes.
+     * @param etag The expected etag, null to get any version.
+     * @return The file input stream starting at the offset.
+     * @throws IOException Thrown when getting the file failed, a SardineException with status 412 when the file
+     *                     has changed.
+     */
+    ContentLengthInputStream get(String url, long offset, String etag) throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.addHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+
+        if (etag != null) {
+            get.addHeader(HttpHeaders.IF_MATCH, etag);
+        }
+
+        // Must use #execute without handler, otherwise the entity is consumed.
+        HttpResponse response = this.execute(get);
+
+        try {
+            int statusCode = response.getStatusLine().getStatusCode();
+
+            // The offset is at or after the end of the file, so there is nothing left to send.
+            if (statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                EntityUtils.consumeQuietly(response.getEntity());
+
+                return new ContentLengthInputStream(new ByteArrayInputStream(new byte[0]), 0L);
+            }
+
+            new VoidResponseHandler().handleResponse(response);
+            InputStream inputStream = new HttpMethodReleaseInputStream(response);
+            long contentLength = response.getEntity().getContentLength();
+
+            if (statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+                Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+
+                if (contentRange != null && !contentRange.getValue().startsWith("bytes " + offset + "-")) {
+                    throw new IOException("Unexpected content range " + contentRange.getValue());
+                }
+            } else {
+                skipFully(inputStream, offset);
+                contentLength = contentLength < 0 ? -1 : Math.max(0, contentLength - offset);
+            }
+
+            return new ContentLengthInputStream(inputStream, contentLength);
+        } catch (IOException ex) {
+            get.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get a file when it still has an etag.
+     *
+     * @param url The file url.
+     * @param etag The expected etag.
+     * @return The file input stream or null when the file has changed.
+     * @throws IOException Thrown when getting the file failed.
+     */
+    ContentLengthInputStream getIfMatch(String url, String etag) throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.addHeader(HttpHeaders.IF_MATCH, etag);
+
+        HttpResponse response = this.execute(get);
+
+        try {
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED) {
+                EntityUtils.consumeQuietly(response.getEntity());
+
+                return null;
+            }
+
+            new VoidResponseHandler().handleResponse(response);
+
+            return new ContentLengthInputStream(new HttpMethodReleaseInputStream(response),
+                    response.getEntity().getContentLength());
+        } catch (IOException ex) {
+            get.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * Check if a file still has an etag, with a HEAD request with If-None-Match.
+     * Servers that ignore the condition are checked with the ETag header.
+     *
+     * @param url The file url.
+     * @param etag The expected etag.
+     * @return True when the file has the etag.
+     * @throws IOException Thrown when the request failed.
+     */
+    boolean hasEtag(String url, String etag) throws IOException {
+        HttpHead head = new HttpHead(url);
+        head.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+
+        return this.execute(head, response -> {
+            int statusCode = response.getStatusLine().getStatusCode();
+            Header etagHeader = response.getFirstHeader(HttpHeaders.ETAG);
+
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+                return true;
+            }
+
+            new VoidResponseHandler().handleResponse(response);
+
+            return etagHeader != null && etag.equals(etagHeader.getValue());
+        });
+    }
+
+    /**
+     * Get a part of a file.
+     *
+     * @param url The file url.
+     * @param start The offset of the first byte.
+     * @param length The amount of bytes.
+     * @return The bytes or null when the server doesn't support range requests.
+     * @throws IOException Thrown when getting the part failed or the file is shorter than expected.
+     */
+    byte[] getRange(String url, long start, int length) throws IOException {
+        return this.getRange(url, start, length, null, -1);
+    }
+
+    /**
+     * Get a part of a version of a file.
+     * The version is checked with If-Match on the etag and with the total size in the Content-Range.
+     *
+     * @param url The file url.
+     * @param start The offset of the first byte.
+     * @param length The amount of bytes.
+     * @param etag The expected etag, null to get any version.
+     * @param size The expected file size, -1 for any size.
+     * @return The bytes or null when the server doesn't support range requests.
+     * @throws IOException Thrown when getting the part failed or the file is shorter than expected,
+     *                     a SardineException with status 412 when the file has changed.
+     */
+    byte[] getRange(String url, long start, int length, String etag, long size) throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.addHeader(HttpHeaders.RANGE, "bytes=" + start + "-" + (start + length - 1));
+
+        if (etag != null) {
+            get.addHeader(HttpHeaders.IF_MATCH, etag);
+        }
+
+        HttpResponse response = this.execute(get);
+
+        try {
+            new VoidResponseHandler().handleResponse(response);
+
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                // Don't download the whole file, the caller falls back to a single request.
+                get.abort();
+
+                return null;
+            }
+
+            Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+
+            if (size >= 0 && contentRange != null && !contentRange.getValue().endsWith("/" + size)
+                    && !contentRange.getValue().endsWith("/*")) {
+                throw new SardineException("Unexpected content range " + contentRange.getValue(),
+                        HttpStatus.SC_PRECONDITION_FAILED, "Precondition Failed");
+            }
+
+            byte[] bytes = new byte[length];
+
+            try (InputStream inputStream = response.getEntity().getContent()) {
+                int offset = 0;
+
+                while (offset < length) {
+                    int read = inputStream.read(bytes, offset, length - offset);
+
+                    if (read == -1) {
+                        throw new EOFException("Range ended after " + offset + " of " + length + " bytes");
+                    }
+
+                    offset += read;
+                }
+            }
+
+            return bytes;
+        } catch (IOException ex) {
+            get.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * Do a PROPFIND request for the properties StackFtp uses and read the response while it is received.
+     *
+     * @param url The url.
+     * @param depth The depth, -1 for infinity.
+     * @return The response reader, must be closed.
+     * @throws IOException Thrown when the request failed.
+     */
+    MultistatusReader propfind(String url, int depth) throws IOException {
+        return this.propfind(url, depth, MultistatusReader.PROPFIND_BODY);
+    }
+
+    /**
+     * Do a PROPFIND request with a custom body and read the response while it is received.
+     *
+     * @param url The url.
+     * @param depth The depth, -1 for infinity.
+     * @param body The PROPFIND request body.
+     * @return The response reader, must be closed.
+     * @throws IOException Thrown when the request failed.
+     */
+    MultistatusReader propfind(String url, int depth, String body) throws IOException {
+        HttpPropFind propfind = new HttpPropFind(url);
+        propfind.setDepth(depth < 0 ? "infinity" : Integer.toString(depth));
+        propfind.setEntity(new StringEntity(body, ContentType.create("application/xml", StandardCharsets.UTF_8)));
+
+        // Must use #execute without handler, otherwise the whole response is parsed at once.
+        HttpResponse response = this.execute(propfind);
+
+        try {
+            new VoidResponseHandler().handleResponse(response);
+
+            return new MultistatusReader(propfind, response);
+        } catch (IOException ex) {
+            propfind.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * Assemble the chunks of a chunked upload into the destination file.
+     *
+     * @param chunksUrl The url of the chunk collection.
+     * @param destinationUrl The url of the destination file.
+     * @param totalLength The total size of all chunks.
+     * @throws IOException Thrown when assembling failed.
+     */
+    void assemble(String chunksUrl, String destinationUrl, long totalLength) throws IOException {
+        HttpMove move = new HttpMove(chunksUrl + "/.file", destinationUrl, true);
+        move.addHeader("OC-Total-Length", Long.toString(totalLength));
+
+        this.execute(move, new VoidResponseHandler());
+    }
+
+    /**
+     * Skip an exact amount of bytes.
+     *
+     * @param inputStream The stream.
+     * @param bytes The amount of bytes to skip.
+     * @throws IOException Thrown when the stream ends before all bytes are skipped.
+     */
+    private static void skipFully(InputStream inputStream, long bytes) throws IOException {
+        byte[] discard = new byte[8192];
+
+        while (bytes > 0) {
+            int read = inputStream.read(discard, 0, (int) Math.min(discard.length, bytes));
+
+            if (read == -1) {
+                throw new EOFException("File is shorter than the offset");
+            }
+
+            bytes -= read;
+        }
+    }
+}
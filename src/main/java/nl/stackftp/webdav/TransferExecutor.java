@@ -0,0 +1,174 @@
+package nl.stackftp.webdav;
+
+import nl.stackftp.concurrent.ThreadFactories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+final class TransferExecutor {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TransferExecutor.class);
+
+    /**
+     * The name of the transfers, used for thread names and logging.
+     */
+    private final String name;
+
+    /**
+     * The executor running the transfers.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Permits for running and queued transfers.
+     * Submitting blocks when there are none left, this slows down the ftp clients.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The TransferExecutor constructor.
+     *
+     * @param name The name of the transfers, like upload or download.
+     * @param threads The maximum amount of concurrent transfers.
+     * @param queueSize The maximum amount of transfers waiting for a thread.
+     * @param virtualThreads Run the transfers on virtual threads when the runtime supports it.
+     */
+    TransferExecutor(String name, int threads, int queueSize, boolean virtualThreads) {
+        this.name = name;
+        threads = Math.max(1, threads);
+        ThreadFactory threadFactory = virtualThreads ? ThreadFactories.virtual(name + '-') : null;
+
+        if (threadFactory == null) {
+            if (virtualThreads) {
+                logger.warn("Virtual threads are not supported by this runtime, using platform threads for {}s", name);
+            }
+
+            threadFactory = ThreadFactories.platform(name + '-');
+        }
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+        this.permits = new Semaphore(threads + Math.max(0, queueSize));
+    }
+
+    /**
+     * Submit a transfer.
+     * Blocks while the maximum amount of running and queued transfers is reached.
+     *
+     * @param transfer The transfer.
+     * @param <T> The transfer result type.
+     * @return The future of the transfer.
+     * @throws InterruptedIOException Thrown when interrupted while waiting.
+     */
+    <T> Future<T> submit(Callable<T> transfer) throws InterruptedIOException {
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a " + this.name + " slot");
+        }
+
+        try {
+            // The permit is released when the future is done, also when it's cancelled before it started.
+            FutureTask<T> future = new FutureTask<T>(transfer) {
+                @Override
+                protected void done() {
+                    TransferExecutor.this.permits.release();
+                }
+            };
+
+            this.executor.execute(future);
+
+            logger.debug("{} submitted, {} running, {} queued, {} completed",
+                    this.name, this.getActiveCount(), this.getQueuedCount(), this.getCompletedCount());
+
+            return future;
+        } catch (RuntimeException ex) {
+            this.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Run a call without waiting for a free slot.
+     * The call is queued when all threads are busy, the caller never blocks.
+     *
+     * @param call The call.
+     * @param <T> The result type.
+     * @return The future of the result, completed exceptionally when the call fails.
+     */
+    <T> CompletableFuture<T> supply(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+
+        return future;
+    }
+
+    /**
+     * Get the amount of running transfers.
+     *
+     * @return The amount of running transfers.
+     */
+    int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * Get the amount of transfers waiting for a thread.
+     *
+     * @return The amount of queued transfers.
+     */
+    int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * Get the amount of transfers that can be submitted without blocking.
+     *
+     * @return The amount of free slots.
+     */
+    int getAvailableSlots() {
+        return this.permits.availablePermits();
+    }
+
+    /**
+     * Get the amount of finished transfers.
+     *
+     * @return The amount of finished transfers.
+     */
+    long getCompletedCount() {
+        return this.executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Stop accepting transfers, running transfers are finished.
+     */
+    void shutdown() {
+        this.executor.shutdown();
+    }
+}
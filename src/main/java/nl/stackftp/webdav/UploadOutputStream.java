@@ -0,0 +1,160 @@
+package nl.stackftp.webdav;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+final class UploadOutputStream extends OutputStream implements AbortableUpload {
+
+    /**
+     * The pipe to the upload request.
+     */
+    private final UploadPipe pipe;
+
+    /**
+     * The stream writing to the upload request.
+     */
+    private final OutputStream outputStream;
+
+    /**
+     * The running upload request.
+     */
+    private final Future<?> upload;
+
+    /**
+     * Is this stream closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The UploadOutputStream constructor.
+     *
+     * @param pipe The pipe to the upload request.
+     * @param upload The running upload request.
+     */
+    UploadOutputStream(UploadPipe pipe, Future<?> upload) {
+        this.pipe = pipe;
+        this.outputStream = pipe.getOutputStream();
+        this.upload = upload;
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param b The byte.
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void write(int b) throws IOException {
+        try {
+            this.outputStream.write(b);
+        } catch (IOException ex) {
+            throw this.failure(ex);
+        }
+    }
+
+    /**
+     * Write bytes.
+     *
+     * @param bytes The bytes.
+     * @param offset The offset in bytes.
+     * @param length The amount of bytes.
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        try {
+            this.outputStream.write(bytes, offset, length);
+        } catch (IOException ex) {
+            throw this.failure(ex);
+        }
+    }
+
+    /**
+     * Flush the stream.
+     *
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.outputStream.flush();
+    }
+
+    /**
+     * End the upload and wait until the Webdav server has responded.
+     * This way the ftp client only gets a success reply when the file is really stored.
+     *
+     * @throws IOException Thrown when the upload failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.outputStream.close();
+        await(this.upload);
+    }
+
+    /**
+     * Abort the upload request, the Webdav server gets an incomplete request and doesn't store the file.
+     * An upload that is still waiting for a free upload thread never starts.
+     */
+    @Override
+    public void abort() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.pipe.abortWriter();
+        this.upload.cancel(false);
+    }
+
+    /**
+     * Wait for an upload request to finish.
+     *
+     * @param upload The upload request.
+     * @throws IOException The exception of the upload request.
+     */
+    static void await(Future<?> upload) throws IOException {
+        try {
+            upload.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the upload to finish");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException("Upload failed", cause);
+        }
+    }
+
+    /**
+     * Get the exception to throw when writing failed.
+     * When writing failed because the upload request failed, the exception of the request is more useful.
+     *
+     * @param writeException The exception of the write.
+     * @return The exception to throw.
+     */
+    private IOException failure(IOException writeException) {
+        if (!this.upload.isDone()) {
+            return writeException;
+        }
+
+        try {
+            await(this.upload);
+        } catch (IOException ex) {
+            return ex;
+        }
+
+        return writeException;
+    }
+}
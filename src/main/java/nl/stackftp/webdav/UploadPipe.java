@@ -0,0 +1,405 @@
+package nl.stackftp.webdav;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class UploadPipe {
+
+    /**
+     * The ring buffer.
+     */
+    private final byte[] buffer;
+
+    /**
+     * The position of the first unread byte.
+     */
+    private int readPosition = 0;
+
+    /**
+     * The amount of unread bytes.
+     */
+    private int count = 0;
+
+    /**
+     * The total amount of bytes read from the pipe.
+     */
+    private long transferred = 0;
+
+    /**
+     * Is the writing side closed.
+     */
+    private boolean writerClosed = false;
+
+    /**
+     * Is the reading side closed.
+     */
+    private boolean readerClosed = false;
+
+    /**
+     * Has the writer aborted, the entity then fails instead of ending.
+     */
+    private boolean aborted = false;
+
+    /**
+     * Guards the buffer state.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when bytes are written or the writer closes.
+     */
+    private final Condition notEmpty = this.lock.newCondition();
+
+    /**
+     * Signalled when bytes are read or the reader closes.
+     */
+    private final Condition notFull = this.lock.newCondition();
+
+    /**
+     * The UploadPipe constructor.
+     * The pipe is a ring buffer between the ftp data connection and the HTTP request of an upload.
+     * The ftp server writes to the output stream, the HTTP client sends the entity.
+     * Only one writer and one reader are supported.
+     *
+     * @param bufferSize The ring buffer size in bytes.
+     */
+    UploadPipe(int bufferSize) {
+        this.buffer = new byte[Math.max(1024, bufferSize)];
+    }
+
+    /**
+     * Get the stream the ftp server writes the upload to.
+     *
+     * @return The output stream.
+     */
+    OutputStream getOutputStream() {
+        return new PipeOutputStream();
+    }
+
+    /**
+     * Get the HTTP entity that sends everything written to the pipe.
+     *
+     * @return The entity.
+     */
+    AbstractHttpEntity getEntity() {
+        return new PipeEntity();
+    }
+
+    /**
+     * Get the amount of bytes read from the pipe.
+     *
+     * @return The amount of bytes.
+     */
+    long getTransferred() {
+        this.lock.lock();
+        try {
+            return this.transferred;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Close the reading side.
+     * A writer waiting for space gets an IOException.
+     */
+    void closeReader() {
+        this.lock.lock();
+        try {
+            this.readerClosed = true;
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Abort the writing side.
+     * The entity fails instead of ending, so the Webdav server doesn't store an incomplete file.
+     */
+    void abortWriter() {
+        this.lock.lock();
+        try {
+            this.aborted = true;
+            this.writerClosed = true;
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Write bytes to the ring buffer, waiting for space when full.
+     *
+     * @param bytes The bytes.
+     * @param offset The offset in bytes.
+     * @param length The amount of bytes to write.
+     * @throws IOException Thrown when the pipe is closed.
+     */
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        this.lock.lock();
+        try {
+            while (length > 0) {
+                while (this.count == this.buffer.length && !this.readerClosed) {
+                    this.await(this.notFull);
+                }
+
+                if (this.readerClosed) {
+                    throw new IOException("Upload has been closed");
+                }
+
+                if (this.writerClosed) {
+                    throw new IOException("Pipe is closed");
+                }
+
+                int writePosition = (this.readPosition + this.count) % this.buffer.length;
+                int chunk = Math.min(length,
+                        Math.min(this.buffer.length - this.count, this.buffer.length - writePosition));
+
+                System.arraycopy(bytes, offset, this.buffer, writePosition, chunk);
+                this.count += chunk;
+                offset += chunk;
+                length -= chunk;
+                this.notEmpty.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Close the writing side, the entity ends after the buffered bytes.
+     */
+    private void closeWriter() {
+        this.lock.lock();
+        try {
+            this.writerClosed = true;
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the next readable region of the ring buffer.
+     *
+     * @return The length of the contiguous readable region starting at the read position, -1 at the end.
+     * @throws IOException Thrown when interrupted or when the writer aborted.
+     */
+    private int awaitReadable() throws IOException {
+        this.lock.lock();
+        try {
+            while (this.count == 0 && !this.writerClosed) {
+                this.await(this.notEmpty);
+            }
+
+            if (this.aborted) {
+                throw new IOException("Upload has been aborted");
+            }
+
+            if (this.count == 0) {
+                return -1;
+            }
+
+            return Math.min(this.count, this.buffer.length - this.readPosition);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Release a region returned by awaitReadable() after it has been consumed.
+     *
+     * @param length The amount of consumed bytes.
+     */
+    private void consumed(int length) {
+        this.lock.lock();
+        try {
+            this.readPosition = (this.readPosition + length) % this.buffer.length;
+            this.count -= length;
+            this.transferred += length;
+            this.notFull.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait on a condition, converting interrupts to an IOException.
+     *
+     * @param condition The condition.
+     * @throws InterruptedIOException Thrown when interrupted.
+     */
+    private void await(Condition condition) throws InterruptedIOException {
+        try {
+            condition.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the upload pipe");
+        }
+    }
+
+    private final class PipeOutputStream extends OutputStream {
+
+        /**
+         * Write a single byte.
+         *
+         * @param b The byte.
+         * @throws IOException Thrown when the pipe is closed.
+         */
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * Write bytes.
+         *
+         * @param bytes The bytes.
+         * @param offset The offset in bytes.
+         * @param length The amount of bytes.
+         * @throws IOException Thrown when the pipe is closed.
+         */
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            UploadPipe.this.write(bytes, offset, length);
+        }
+
+        /**
+         * Close the writing side.
+         */
+        @Override
+        public void close() {
+            UploadPipe.this.closeWriter();
+        }
+    }
+
+    private final class PipeInputStream extends InputStream {
+
+        /**
+         * Read a single byte.
+         *
+         * @return The byte or -1 at the end.
+         * @throws IOException Thrown when interrupted.
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+
+            return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        /**
+         * Read bytes.
+         *
+         * @param bytes The destination.
+         * @param offset The offset in the destination.
+         * @param length The maximum amount of bytes.
+         * @return The amount of bytes read or -1 at the end.
+         * @throws IOException Thrown when interrupted.
+         */
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            int readable = UploadPipe.this.awaitReadable();
+
+            if (readable == -1) {
+                return -1;
+            }
+
+            int chunk = Math.min(readable, length);
+            System.arraycopy(UploadPipe.this.buffer, UploadPipe.this.readPosition, bytes, offset, chunk);
+            UploadPipe.this.consumed(chunk);
+
+            return chunk;
+        }
+
+        /**
+         * Close the reading side.
+         */
+        @Override
+        public void close() {
+            UploadPipe.this.closeReader();
+        }
+    }
+
+    private final class PipeEntity extends AbstractHttpEntity {
+
+        /**
+         * The PipeEntity constructor.
+         * The length is unknown, so the entity is sent chunked.
+         */
+        private PipeEntity() {
+            this.setChunked(true);
+        }
+
+        /**
+         * The entity can only be sent once.
+         *
+         * @return Always false.
+         */
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        /**
+         * The length is unknown.
+         *
+         * @return Always -1.
+         */
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        /**
+         * Get the pipe as input stream.
+         *
+         * @return The input stream.
+         */
+        @Override
+        public InputStream getContent() {
+            return new PipeInputStream();
+        }
+
+        /**
+         * Write the pipe content to the HTTP connection.
+         * The bytes go straight from the ring buffer to the connection, without an intermediate copy.
+         *
+         * @param outputStream The HTTP connection stream.
+         * @throws IOException Thrown when writing failed.
+         */
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            int readable;
+
+            while ((readable = UploadPipe.this.awaitReadable()) != -1) {
+                // The writer never touches the unread region, so it can be sent without holding the lock.
+                outputStream.write(UploadPipe.this.buffer, UploadPipe.this.readPosition, readable);
+                UploadPipe.this.consumed(readable);
+            }
+
+            outputStream.flush();
+        }
+
+        /**
+         * The entity streams from the pipe.
+         *
+         * @return Always true.
+         */
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+    }
+}
@@ -1,18 +1,43 @@
 package nl.stackftp.webdav;
 
-import com.github.sardine.DavResource;
-import com.github.sardine.Sardine;
+import com.github.sardine.impl.SardineException;
 import nl.stackftp.ftp.StackFile;
 import nl.stackftp.ftp.StackUser;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class WebdavClient {
 
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WebdavClient.class);
+
+    /**
+     * The maximum amount of interrupted chunked uploads remembered per user.
+     */
+    private static final int MAX_INTERRUPTED_UPLOADS = 100;
+
     /**
      * The user.
      */
@@ -21,27 +46,117 @@ public class WebdavClient {
     /**
      * The actual webdav client.
      */
-    private Sardine sardine;
+    private StackSardine sardine;
+
+    /**
+     * Converts between ftp paths and Webdav urls.
+     */
+    private PathCodec pathCodec;
+
+    /**
+     * The url of the Webdav endpoint with the uploads and files of all users.
+     */
+    private String davUrl;
+
+    /**
+     * The metadata cache of this user.
+     */
+    private MetadataCache metadataCache;
+
+    /**
+     * The directory listing cache of this user.
+     */
+    private ListingCache listingCache;
+
+    /**
+     * The directories known to exist of this user.
+     */
+    private KnownDirectories knownDirectories;
+
+    /**
+     * The factory with the configuration and shared resources.
+     */
+    private WebdavClientFactory webdavClientFactory;
+
+    /**
+     * The upload executor shared by all users.
+     */
+    private TransferExecutor uploadExecutor;
+
+    /**
+     * The executor of asynchronous Webdav calls shared by all users.
+     */
+    private TransferExecutor asyncExecutor;
+
+    /**
+     * The upload buffer size in bytes.
+     */
+    private int uploadBufferSize;
+
+    /**
+     * The url of the chunk collection of the last interrupted chunked upload, by path.
+     * Only used to resume an upload at an offset.
+     */
+    private final Map<String, String> interruptedUploads = new LinkedHashMap<String, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return this.size() > MAX_INTERRUPTED_UPLOADS;
+        }
+    };
+
+    /**
+     * The paths with a chunked upload in progress.
+     */
+    private final Set<String> activeUploads = new HashSet<>();
+
+    /**
+     * Does the server allow Depth: infinity PROPFINDs.
+     * Assumed until the server refuses one.
+     */
+    private volatile boolean depthInfinitySupported = true;
+
+    /**
+     * The WebdavClient constructor.
+     *
+     * @param stackUser The StackUser.
+     * @param webdavClientFactory The factory with the configuration and shared resources.
+     */
+    WebdavClient(StackUser stackUser, WebdavClientFactory webdavClientFactory) {
+        this(stackUser, webdavClientFactory, "https://" + stackUser.getUrl());
+    }
 
     /**
      * The WebdavClient constructor.
      *
      * @param stackUser The StackUser.
+     * @param webdavClientFactory The factory with the configuration and shared resources.
+     * @param baseUrl The url of the Webdav server, without trailing slash.
      */
-    public WebdavClient(StackUser stackUser) {
+    WebdavClient(StackUser stackUser, WebdavClientFactory webdavClientFactory, String baseUrl) {
         this.stackUser = stackUser;
+        this.webdavClientFactory = webdavClientFactory;
+        this.pathCodec = new PathCodec(baseUrl + "/remote.php/webdav");
+        this.davUrl = baseUrl + "/remote.php/dav";
+        this.metadataCache = webdavClientFactory.createMetadataCache();
+        this.listingCache = webdavClientFactory.createListingCache();
+        this.knownDirectories = webdavClientFactory.createKnownDirectories();
+        this.uploadExecutor = webdavClientFactory.getUploadExecutor();
+        this.asyncExecutor = webdavClientFactory.getAsyncExecutor();
+        this.uploadBufferSize = webdavClientFactory.getUploadBufferSize();
 
         // Create client with username and password.
-        this.sardine = SardineFactory.begin(this.stackUser.getName(), this.stackUser.getPassword());
+        this.sardine = webdavClientFactory.createSardine(this.stackUser.getName(), this.stackUser.getPassword());
     }
 
     /**
-     * Get the Webdav base url.
+     * Get the url of a new chunk collection.
+     * Every upload has its own collection, an interrupted upload is found again by its path.
      *
      * @return The url.
      */
-    private String getUrl() {
-        return String.format("https://%s/remote.php/webdav", this.stackUser.getUrl());
+    private String newChunksUrl() {
+        return this.davUrl + "/uploads/" + PathCodec.encodeSegment(this.stackUser.getName())
+                + "/stackftp-" + UUID.randomUUID();
     }
 
     /**
@@ -53,16 +168,33 @@ public class WebdavClient {
         return this.stackUser;
     }
 
+    /**
+     * Close the HTTP client of this user.
+     * The shared connection pool stays open.
+     */
+    public void close() {
+        try {
+            this.sardine.shutdown();
+        } catch (IOException ex) {
+            logger.warn("Closing Webdav client of {} failed", this.stackUser.getName(), ex);
+        }
+    }
+
     /**
      * Check if the username and password are correct.
      *
      * @return True when correct.
+     * @throws IOException Thrown when the Webdav server couldn't be reached or gave an unexpected response.
      */
-    public boolean authenticate() {
+    public boolean authenticate() throws IOException {
         try {
             return this.exists("/");
-        } catch (IOException ex) {
-            return false;
+        } catch (SardineException ex) {
+            if (ex.getStatusCode() == 401 || ex.getStatusCode() == 403) {
+                return false;
+            }
+
+            throw ex;
         }
     }
 
@@ -74,7 +206,7 @@ public class WebdavClient {
      * @throws IOException Thrown when exists failed.
      */
     public boolean exists(String path) throws IOException {
-        return this.sardine.exists(this.getUrl() + this.encodePath(path));
+        return this.getMetadata(path).exists();
     }
 
     /**
@@ -84,19 +216,13 @@ public class WebdavClient {
      * @return List of files.
      */
     public List<StackFile> list(String path) {
-        try {
-            List<DavResource> davResources = this.sardine.list(this.getUrl() + this.encodePath(path));
-            List<StackFile> fileList = new ArrayList<>();
+        List<StackFile> fileList = new ArrayList<>();
+
+        try (DirectoryListing listing = this.listStream(path)) {
+            StackFile file;
 
-            // Skip first.
-            for (int resourceIndex = 1; resourceIndex < davResources.size(); resourceIndex++) {
-                DavResource davResource = davResources.get(resourceIndex);
-                String filePath = davResource.getPath().substring(18);
-                fileList.add(new StackFile(filePath,
-                        this.getStackUser(),
-                        davResource.getContentLength(),
-                        davResource.getModified().getTime()
-                ));
+            while ((file = listing.next()) != null) {
+                fileList.add(file);
             }
 
             return fileList;
@@ -105,6 +231,150 @@ public class WebdavClient {
         }
     }
 
+    /**
+     * List the files of a directory one by one while the response is received.
+     *
+     * @param path The directory to list. Must be absolute.
+     * @return The listing, must be closed.
+     */
+    public DirectoryListing listStream(String path) {
+        return new DirectoryListing(this, path, false, this.webdavClientFactory.getDownloadExecutor(),
+                this.webdavClientFactory.getListParallel());
+    }
+
+    /**
+     * List everything below a directory.
+     * The files are returned while the tree is being listed, so the first files are available immediately.
+     *
+     * @param path The directory to list. Must be absolute.
+     * @return The listing, must be closed.
+     */
+    public DirectoryListing listRecursive(String path) {
+        return new DirectoryListing(this, path, true, this.webdavClientFactory.getDownloadExecutor(),
+                this.webdavClientFactory.getListParallel());
+    }
+
+    /**
+     * Do a PROPFIND request.
+     *
+     * @param path The path. Must be absolute.
+     * @param depth The depth, -1 for infinity.
+     * @return The response reader, the requested path first. Must be closed.
+     * @throws IOException Thrown when the request failed.
+     */
+    MultistatusReader propfind(String path, int depth) throws IOException {
+        return this.sardine.propfind(this.pathCodec.toUrl(path), depth);
+    }
+
+    /**
+     * Convert a resource of a PROPFIND response to a file and cache its metadata.
+     *
+     * @param resource The resource.
+     * @return The file.
+     * @throws IOException Thrown when the resource isn't in the Webdav folder of the user.
+     */
+    StackFile toStackFile(MultistatusReader.Resource resource) throws IOException {
+        String filePath = this.pathCodec.toPath(resource.getPath());
+
+        this.metadataCache.put(filePath, resource.getMetadata());
+
+        return new StackFile(filePath, this.getStackUser(), resource.getMetadata());
+    }
+
+    /**
+     * Cache the metadata of a path.
+     *
+     * @param path The absolute path.
+     * @param metadata The metadata.
+     * @return The generation of the cache entry.
+     */
+    long cacheMetadata(String path, FileMetadata metadata) {
+        return this.metadataCache.put(path, metadata);
+    }
+
+    /**
+     * Remember that all children of a directory have been cached by a listing.
+     * Paths in the directory that aren't cached are then known not to exist.
+     *
+     * @param path The absolute path of the directory.
+     * @param generation The generation returned when caching the directory at the start of the listing.
+     */
+    void completeListing(String path, long generation) {
+        this.metadataCache.markComplete(path, generation);
+    }
+
+    /**
+     * Get the cached listing of a directory when the directory hasn't changed since it was listed.
+     * Checked with a PROPFIND for only the etag and last modified date of the directory.
+     *
+     * @param path The absolute path of the directory.
+     * @return The listing or null when not cached or changed.
+     * @throws IOException Thrown when the request failed.
+     */
+    ListingCache.Listing getValidListing(String path) throws IOException {
+        ListingCache.Listing listing = this.listingCache.get(path);
+
+        if (listing == null) {
+            return null;
+        }
+
+        try (MultistatusReader reader = this.sardine.propfind(this.pathCodec.toUrl(path), 0,
+                MultistatusReader.VALIDATOR_PROPFIND_BODY)) {
+            MultistatusReader.Resource resource = reader.next();
+
+            if (resource != null && listing.isValid(resource.getMetadata())) {
+                return listing;
+            }
+        } catch (SardineException ex) {
+            // The directory has been removed, the full listing reports it.
+            if (ex.getStatusCode() != 404) {
+                throw ex;
+            }
+        }
+
+        this.listingCache.invalidate(path);
+
+        return null;
+    }
+
+    /**
+     * Get the maximum amount of files of a cached listing.
+     *
+     * @return The amount of files, 0 when listings aren't cached.
+     */
+    int getListingCacheMaxEntries() {
+        return this.listingCache.getMaxResources();
+    }
+
+    /**
+     * Cache the listing of a directory.
+     *
+     * @param path The absolute path of the directory.
+     * @param directory The metadata of the directory.
+     * @param children The children of the directory.
+     */
+    void cacheListing(String path, FileMetadata directory, List<MultistatusReader.Resource> children) {
+        this.listingCache.put(path, directory, children);
+    }
+
+    /**
+     * Does the server allow Depth: infinity PROPFINDs.
+     *
+     * @return True when allowed or not known yet.
+     */
+    boolean isDepthInfinitySupported() {
+        return this.depthInfinitySupported;
+    }
+
+    /**
+     * Remember if the server allows Depth: infinity PROPFINDs.
+     *
+     * @param depthInfinitySupported True when allowed.
+     */
+    void setDepthInfinitySupported(boolean depthInfinitySupported) {
+        this.depthInfinitySupported = depthInfinitySupported;
+    }
+
     /**
      * Delete a file or directory.
      *
@@ -112,7 +382,22 @@ public class WebdavClient {
      * @throws IOException Thrown when delete failed.
      */
     public void delete(String path) throws IOException {
-        this.sardine.delete(this.getUrl() + this.encodePath(path));
+        try {
+            this.sardine.delete(this.pathCodec.toUrl(path));
+        } finally {
+            this.invalidate(path);
+        }
+    }
+
+    /**
+     * Remove a changed path from the caches.
+     *
+     * @param path The absolute path.
+     */
+    private void invalidate(String path) {
+        this.metadataCache.invalidate(path);
+        this.listingCache.invalidate(path);
+        this.knownDirectories.invalidate(path);
     }
 
     /**
@@ -123,7 +408,93 @@ public class WebdavClient {
      * @throws IOException Thrown when getting file failed.
      */
     public InputStream get(String path) throws IOException {
-        return this.sardine.get(this.getUrl() + this.encodePath(path));
+        return this.sardine.get(this.pathCodec.toUrl(path));
+    }
+
+    /**
+     * Get a file from webdav starting at an offset.
+     * Only the bytes after the offset are downloaded when the server supports range requests.
+     *
+     * @param path The file path.
+     * @param offset The offset in bytes.
+     * @return The file input stream starting at the offset.
+     * @throws IOException Thrown when getting file failed.
+     */
+    public InputStream get(String path, long offset) throws IOException {
+        if (offset <= 0) {
+            return this.get(path);
+        }
+
+        return this.sardine.get(this.pathCodec.toUrl(path), offset);
+    }
+
+    /**
+     * Download a file starting at an offset.
+     * When the content cache is enabled a cached version is served from disk when the etag on the server is
+     * still the same, and a complete download is added to the cache.
+     *
+     * @param path The file path.
+     * @param offset The offset in bytes.
+     * @param size The file size.
+     * @param etag The etag of the file, null when unknown.
+     * @return The file input stream starting at the offset.
+     * @throws IOException Thrown when getting file failed.
+     */
+    public InputStream download(String path, long offset, long size, String etag) throws IOException {
+        ContentCache contentCache = this.webdavClientFactory.getContentCache();
+
+        if (contentCache == null || !contentCache.accepts(size, etag)) {
+            return this.downloadDirect(path, offset, size, etag);
+        }
+
+        String url = this.pathCodec.toUrl(path);
+        String key = ContentCache.getKey(this.stackUser.getUrl(), this.stackUser.getName(), path, etag);
+
+        if (contentCache.contains(key) && this.sardine.hasEtag(url, etag)) {
+            InputStream inputStream = contentCache.open(key, offset);
+
+            if (inputStream != null) {
+                return inputStream;
+            }
+        }
+
+        if (offset > 0) {
+            return this.downloadDirect(path, offset, size, etag);
+        }
+
+        // The condition makes sure the cached content belongs to the etag.
+        InputStream inputStream = this.sardine.getIfMatch(url, etag);
+
+        if (inputStream == null) {
+            // Changed since the metadata was fetched, so the size isn't known.
+            return this.get(path);
+        }
+
+        return contentCache.store(key, size, inputStream);
+    }
+
+    /**
+     * Download a file starting at an offset from the Webdav server.
+     * Big files with a known etag are downloaded with parallel range requests when configured.
+     *
+     * @param path The file path.
+     * @param offset The offset in bytes.
+     * @param size The file size.
+     * @param etag The etag of the file, null when unknown.
+     * @return The file input stream starting at the offset.
+     * @throws IOException Thrown when getting file failed.
+     */
+    private InputStream downloadDirect(String path, long offset, long size, String etag) throws IOException {
+        long threshold = this.webdavClientFactory.getDownloadSegmentThreshold();
+
+        if (threshold <= 0 || size - offset < threshold || etag == null) {
+            return this.get(path, offset);
+        }
+
+        return new SegmentedInputStream(this.sardine, this.pathCodec.toUrl(path), etag, offset, size,
+                this.webdavClientFactory.getDownloadSegmentSize(),
+                this.webdavClientFactory.getDownloadSegments(),
+                this.webdavClientFactory.getDownloadExecutor());
     }
 
     /**
@@ -134,7 +505,12 @@ public class WebdavClient {
      * @throws IOException Thrown when move failed.
      */
     public void move(String fromPath, String toPath) throws IOException {
-        this.sardine.move(this.getUrl() + this.encodePath(fromPath), this.getUrl() + this.encodePath(toPath));
+        try {
+            this.sardine.move(this.pathCodec.toUrl(fromPath), this.pathCodec.toUrl(toPath));
+        } finally {
+            this.invalidate(fromPath);
+            this.invalidate(toPath);
+        }
     }
 
     /**
@@ -144,39 +520,521 @@ public class WebdavClient {
      * @throws IOException Thrown making directory failed.
      */
     public void mkdir(String path) throws IOException {
-        this.sardine.createDirectory(this.getUrl() + this.encodePath(path));
+        try {
+            this.sardine.createDirectory(this.pathCodec.toUrl(path));
+        } finally {
+            this.invalidate(path);
+        }
+
+        this.created(path);
     }
 
     /**
-     * Upload a file by piped input stream.
+     * Create a directory and all missing parent directories.
+     * The deepest path is probed first with a single PROPFIND. When it's missing all its parents up to the first
+     * known directory are probed at the same time. Known directories and cached metadata need no probe.
+     * The missing directories are then created top down.
+     *
+     * @param path The absolute path.
+     * @return The amount of created directories.
+     * @throws IOException Thrown when creating a directory failed or a path is a file.
+     */
+    public int mkdirs(String path) throws IOException {
+        return this.mkdirs(path, true);
+    }
+
+    /**
+     * Create a directory and all missing parent directories.
+     *
+     * @param path The absolute path.
+     * @param retry Retry without the cached parents when they turn out to be missing.
+     * @return The amount of created directories.
+     * @throws IOException Thrown when creating a directory failed or a path is a file.
+     */
+    private int mkdirs(String path, boolean retry) throws IOException {
+        Deque<String> missing = new ArrayDeque<>();
+        Map<String, CompletableFuture<FileMetadata>> probes = null;
+        String directory = path;
+
+        while (!this.knownDirectories.contains(directory)) {
+            CompletableFuture<FileMetadata> probe = probes == null ? null : probes.get(directory);
+            FileMetadata metadata = probe == null ? this.getMetadata(directory) : await(probe);
+
+            if (metadata.exists()) {
+                if (!metadata.isDirectory()) {
+                    throw new IOException(directory + " is a file");
+                }
+
+                this.knownDirectories.add(directory);
+                break;
+            }
+
+            missing.push(directory);
+            directory = getParent(directory);
+
+            if (probes == null) {
+                probes = this.probeParents(directory);
+            }
+        }
+
+        int created = 0;
+
+        while (!missing.isEmpty()) {
+            String missingDirectory = missing.pop();
+
+            try {
+                this.mkdir(missingDirectory);
+                created++;
+            } catch (SardineException ex) {
+                // 409 Conflict or 404 Not Found when a parent that was known to exist was removed by someone else.
+                if (created == 0 && retry && (ex.getStatusCode() == 409 || ex.getStatusCode() == 404)) {
+                    this.forgetParents(missingDirectory);
+
+                    return this.mkdirs(path, false);
+                }
+
+                // 405 Method Not Allowed when it was created by someone else since the probe.
+                if (ex.getStatusCode() != 405) {
+                    throw ex;
+                }
+
+                if (!this.isDirectory(missingDirectory)) {
+                    throw new IOException(missingDirectory + " is a file");
+                }
+
+                this.knownDirectories.add(missingDirectory);
+            }
+        }
+
+        return created;
+    }
+
+    /**
+     * Start fetching the metadata of a directory and its parents up to the first known directory, all at the same
+     * time.
+     *
+     * @param path The absolute path of the directory.
+     * @return The futures of the metadata by path.
+     */
+    private Map<String, CompletableFuture<FileMetadata>> probeParents(String path) {
+        Map<String, CompletableFuture<FileMetadata>> probes = new HashMap<>();
+        String directory = path;
+
+        while (!this.knownDirectories.contains(directory)) {
+            probes.put(directory, this.getMetadataAsync(directory));
+            directory = getParent(directory);
+        }
+
+        return probes;
+    }
+
+    /**
+     * Forget the cached metadata and known directories of all parents of a path.
+     *
+     * @param path The absolute path.
+     */
+    private void forgetParents(String path) {
+        String parent = getParent(path);
+
+        while (!parent.equals("/")) {
+            this.invalidate(parent);
+            parent = getParent(parent);
+        }
+    }
+
+    /**
+     * Get the parent directory of a path.
+     *
+     * @param path The absolute path.
+     * @return The absolute path of the parent.
+     */
+    private static String getParent(String path) {
+        int separatorIndex = path.lastIndexOf('/');
+
+        return separatorIndex <= 0 ? "/" : path.substring(0, separatorIndex);
+    }
+
+    /**
+     * Remember a created directory.
+     * It is empty, so paths in it are known not to exist without asking the server.
+     *
+     * @param path The absolute path.
+     */
+    private void created(String path) {
+        this.knownDirectories.add(path);
+
+        long generation = this.metadataCache.put(path,
+                new FileMetadata(true, true, 0, System.currentTimeMillis(), null, null));
+        this.metadataCache.markComplete(path, generation);
+    }
+
+    /**
+     * Upload a file.
      *
      * @param path The file name.
-     * @param inputStream The file to upload.
+     * @param entity The file to upload.
      * @throws IOException Thrown when put failed.
      */
-    public void put(String path, PipedInputStream inputStream) throws IOException {
-        this.sardine.put(this.getUrl() + this.encodePath(path), inputStream);
+    public void put(String path, HttpEntity entity) throws IOException {
+        try {
+            this.sardine.put(this.pathCodec.toUrl(path), entity, null, true);
+        } catch (SardineException ex) {
+            // 409 Conflict when the directory doesn't exist anymore.
+            if (ex.getStatusCode() == 409) {
+                this.knownDirectories.invalidate(path.substring(0, Math.max(1, path.lastIndexOf('/'))));
+            }
+
+            throw ex;
+        } finally {
+            this.invalidate(path);
+        }
     }
 
     /**
-     * Check if an absolute path is a directory.
+     * Get the metadata of a file or directory.
+     * Served from the metadata cache when possible, otherwise fetched with a single PROPFIND.
      *
-     * @param path The absolute path to check.
-     * @return True when directory.
+     * @param path The absolute path.
+     * @return The metadata, not existing when the server responds with 404.
      * @throws IOException Thrown on Webdav exception.
      */
-    public boolean isDirectory(String path) throws IOException {
-        List<DavResource> davResources = this.sardine.list(this.getUrl() + this.encodePath(path), 0);
+    public FileMetadata getMetadata(String path) throws IOException {
+        FileMetadata metadata = this.metadataCache.get(path);
+
+        if (metadata != null) {
+            return metadata;
+        }
+
+        try (MultistatusReader reader = this.propfind(path, 0)) {
+            MultistatusReader.Resource resource = reader.next();
+
+            metadata = resource == null ? FileMetadata.notFound() : resource.getMetadata();
+        } catch (SardineException ex) {
+            if (ex.getStatusCode() != 404) {
+                throw ex;
+            }
+
+            metadata = FileMetadata.notFound();
+        }
+
+        this.metadataCache.put(path, metadata);
+
+        return metadata;
+    }
+
+    /**
+     * Get the metadata of a file or directory without waiting for it.
+     * Cached metadata is returned as a completed future, otherwise it's fetched by the asynchronous executor,
+     * so the metadata of several paths can be fetched at the same time.
+     *
+     * @param path The absolute path.
+     * @return The future of the metadata, completed exceptionally on Webdav exception.
+     */
+    public CompletableFuture<FileMetadata> getMetadataAsync(String path) {
+        FileMetadata metadata = this.metadataCache.get(path);
+
+        if (metadata != null) {
+            return CompletableFuture.completedFuture(metadata);
+        }
+
+        return this.asyncExecutor.supply(() -> this.getMetadata(path));
+    }
+
+    /**
+     * Wait for metadata fetched with getMetadataAsync.
+     *
+     * @param future The future of the metadata.
+     * @return The metadata.
+     * @throws IOException Thrown when fetching the metadata failed.
+     */
+    private static FileMetadata await(CompletableFuture<FileMetadata> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException("Getting metadata failed", cause);
+        }
+    }
+
+    /**
+     * Upload a file by writing to the returned output stream.
+     * Closing the stream waits for the upload and throws its exception when it failed.
+     * When chunked uploads are enabled the file is uploaded in chunks and an interrupted upload can be resumed at
+     * an offset, otherwise the file is sent with a single request.
+     * A failed ftp transfer must abort the stream, closing it stores the file.
+     * Small files are buffered in memory when enabled, and sent with a known length once written completely.
+     *
+     * @param path The file name.
+     * @param offset The offset to resume the upload at.
+     * @return The output stream to write the file to.
+     * @throws IOException Thrown when the upload can't be started.
+     */
+    public OutputStream upload(String path, long offset) throws IOException {
+        int bufferThreshold = this.webdavClientFactory.getUploadMemoryThreshold();
 
-        return davResources.get(0).isDirectory();
+        if (offset == 0 && bufferThreshold > 0
+                && this.webdavClientFactory.getUploadMemoryBudget().tryAcquire(bufferThreshold)) {
+            return new BufferedUploadOutputStream(bufferThreshold, this.webdavClientFactory.getUploadMemoryBudget(),
+                    (bytes, length) -> this.uploadExecutor.submit(() -> {
+                        long start = System.nanoTime();
+
+                        this.put(path, new ByteArrayEntity(bytes, 0, length));
+                        logThroughput(path, length, System.nanoTime() - start);
+
+                        return null;
+                    }),
+                    () -> this.startUpload(path, 0));
+        }
+
+        return this.startUpload(path, offset);
     }
+
     /**
-     * Encode the path.
+     * Start an upload that is sent while the file is written.
+     * With an offset an interrupted chunked upload is resumed. Otherwise, like for APPE, a new upload starts
+     * with the first bytes of the existing file up to the offset.
      *
-     * @param path The path to encode.
-     * @return Encoded path.
+     * @param path The file path.
+     * @param offset The offset to resume the upload at.
+     * @return The output stream to write the file to.
+     * @throws IOException Thrown when the upload can't be started.
      */
-    private String encodePath(String path) {
-        return path.replace(" ", "%20");
+    private OutputStream startUpload(String path, long offset) throws IOException {
+        if (this.webdavClientFactory.getUploadChunkSize() > 0) {
+            return this.startChunkedUpload(path, offset);
+        }
+
+        this.checkResumable(path, offset);
+        OutputStream outputStream = this.upload(path);
+
+        return this.copyPrefix(path, offset, outputStream);
+    }
+
+    /**
+     * Start a chunked upload.
+     * Only one chunked upload of a path can run at a time. With an offset the last interrupted upload of the path
+     * is resumed, when there is none a new upload starts with the first bytes of the existing file.
+     *
+     * @param path The file path.
+     * @param offset The offset to resume the upload at.
+     * @return The output stream to write the file to.
+     * @throws IOException Thrown when the upload can't be started or the path is already being uploaded.
+     */
+    private OutputStream startChunkedUpload(String path, long offset) throws IOException {
+        String interruptedChunksUrl;
+
+        synchronized (this.activeUploads) {
+            if (!this.activeUploads.add(path)) {
+                throw new IOException(path + " is already being uploaded");
+            }
+
+            synchronized (this.interruptedUploads) {
+                interruptedChunksUrl = this.interruptedUploads.remove(path);
+            }
+        }
+
+        OutputStream outputStream;
+
+        try {
+            if (offset > 0 && interruptedChunksUrl != null
+                    && ChunkedUploadOutputStream.hasUpload(this.sardine, interruptedChunksUrl)) {
+                return this.openChunkedUpload(path, interruptedChunksUrl, offset);
+            }
+
+            if (interruptedChunksUrl != null) {
+                this.deleteChunks(interruptedChunksUrl);
+                interruptedChunksUrl = null;
+            }
+
+            this.checkResumable(path, offset);
+            outputStream = this.openChunkedUpload(path, this.newChunksUrl(), 0);
+        } catch (IOException | RuntimeException ex) {
+            this.endChunkedUpload(path, interruptedChunksUrl);
+            throw ex;
+        }
+
+        // From here on the stream ends the upload when it's closed or aborted.
+        return this.copyPrefix(path, offset, outputStream);
+    }
+
+    /**
+     * Check that a new upload can resume at an offset, the existing file must have at least offset bytes.
+     *
+     * @param path The file path.
+     * @param offset The offset to resume the upload at.
+     * @throws IOException Thrown when the file is smaller.
+     */
+    private void checkResumable(String path, long offset) throws IOException {
+        if (offset <= 0) {
+            return;
+        }
+
+        FileMetadata metadata = this.getMetadata(path);
+
+        if (!metadata.exists() || metadata.isDirectory() || metadata.getSize() < offset) {
+            throw new IOException("Can't resume " + path + " at " + offset
+                    + ", there is no interrupted upload and the file is smaller");
+        }
+    }
+
+    /**
+     * Open a chunked upload.
+     *
+     * @param path The file path.
+     * @param chunksUrl The url of the chunk collection.
+     * @param offset The offset to resume the upload at, 0 to start a new upload.
+     * @return The output stream to write the file to.
+     * @throws IOException Thrown when the upload can't be started or resumed.
+     */
+    private OutputStream openChunkedUpload(String path, String chunksUrl, long offset) throws IOException {
+        return ChunkedUploadOutputStream.open(this.sardine,
+                chunksUrl,
+                this.davUrl + "/files/" + PathCodec.encodeSegment(this.stackUser.getName())
+                        + PathCodec.encodePath(path),
+                offset,
+                this.webdavClientFactory.getUploadChunkSize(),
+                this.webdavClientFactory.getUploadChunkParallel(),
+                this.webdavClientFactory.getUploadChunkRetries(),
+                this.uploadExecutor,
+                stored -> {
+                    this.invalidate(path);
+                    this.endChunkedUpload(path, stored ? null : chunksUrl);
+                });
+    }
+
+    /**
+     * End a chunked upload so the path can be uploaded again.
+     *
+     * @param path The file path.
+     * @param interruptedChunksUrl The url of the chunk collection to resume later, null when there is none.
+     */
+    private void endChunkedUpload(String path, String interruptedChunksUrl) {
+        synchronized (this.activeUploads) {
+            if (interruptedChunksUrl != null) {
+                synchronized (this.interruptedUploads) {
+                    this.interruptedUploads.put(path, interruptedChunksUrl);
+                }
+            }
+
+            this.activeUploads.remove(path);
+        }
+    }
+
+    /**
+     * Remove the chunks of an interrupted upload that won't be resumed.
+     *
+     * @param chunksUrl The url of the chunk collection.
+     */
+    private void deleteChunks(String chunksUrl) {
+        try {
+            this.sardine.delete(chunksUrl);
+        } catch (IOException ex) {
+            logger.warn("Removing the chunks {} failed: {}", chunksUrl, ex.getMessage());
+        }
+    }
+
+    /**
+     * Copy the first bytes of an existing file to a new upload, like for APPE.
+     * The upload is aborted when copying fails.
+     *
+     * @param path The file path.
+     * @param length The amount of bytes to copy.
+     * @param outputStream The upload.
+     * @return The upload.
+     * @throws IOException Thrown when the file got smaller or copying failed.
+     */
+    private OutputStream copyPrefix(String path, long length, OutputStream outputStream) throws IOException {
+        if (length <= 0) {
+            return outputStream;
+        }
+
+        byte[] buffer = new byte[65536];
+
+        try (InputStream inputStream = this.get(path)) {
+            while (length > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length));
+
+                if (read == -1) {
+                    throw new IOException("File " + path + " got smaller while resuming the upload");
+                }
+
+                outputStream.write(buffer, 0, read);
+                length -= read;
+            }
+        } catch (IOException | RuntimeException ex) {
+            ((AbortableUpload) outputStream).abort();
+            throw ex;
+        }
+
+        return outputStream;
+    }
+
+    /**
+     * Upload a file with a single request by writing to the returned output stream.
+     * The HTTP call is done by the upload executor so the ftp server can write while it's being sent.
+     * Closing the stream waits for the HTTP call and throws its exception when it failed.
+     *
+     * @param path The file name.
+     * @return The output stream to write the file to.
+     * @throws IOException Thrown when the upload can't be started.
+     */
+    private OutputStream upload(String path) throws IOException {
+        UploadPipe pipe = new UploadPipe(this.uploadBufferSize);
+        Future<Void> upload;
+
+        try {
+            upload = this.uploadExecutor.submit(() -> {
+                long start = System.nanoTime();
+
+                try {
+                    this.put(path, pipe.getEntity());
+                } finally {
+                    pipe.closeReader();
+                }
+
+                logThroughput(path, pipe.getTransferred(), System.nanoTime() - start);
+
+                return null;
+            });
+        } catch (IOException | RuntimeException ex) {
+            pipe.closeReader();
+            throw ex;
+        }
+
+        return new UploadOutputStream(pipe, upload);
+    }
+
+    /**
+     * Log the throughput of a finished upload at debug level, every upload is logged.
+     *
+     * @param path The uploaded path.
+     * @param bytes The amount of uploaded bytes.
+     * @param nanos The duration of the upload.
+     */
+    static void logThroughput(String path, long bytes, long nanos) {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+
+        double seconds = Math.max(nanos, 1) / 1e9;
+
+        logger.debug("Uploaded {} ({} bytes) in {} ms, {} MB/s", path, bytes,
+                TimeUnit.NANOSECONDS.toMillis(nanos), String.format("%.2f", bytes / seconds / 1e6));
+    }
+
+    /**
+     * Check if an absolute path is a directory.
+     *
+     * @param path The absolute path to check.
+     * @return True when directory.
+     * @throws IOException Thrown on Webdav exception.
+     */
+    public boolean isDirectory(String path) throws IOException {
+        return this.getMetadata(path).isDirectory();
     }
 }
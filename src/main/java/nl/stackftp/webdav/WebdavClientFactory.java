@@ -0,0 +1,428 @@
+package nl.stackftp.webdav;
+
+import nl.stackftp.ftp.StackUser;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class WebdavClientFactory {
+
+    /**
+     * The time to live of cached file metadata in seconds.
+     */
+    @Value("#{environment.FTP_CACHE_TTL?:10}")
+    private int cacheTtl;
+
+    /**
+     * The maximum amount of cached file metadata entries per user.
+     */
+    @Value("#{environment.FTP_CACHE_MAX_ENTRIES?:10000}")
+    private int cacheMaxEntries;
+
+    /**
+     * The maximum amount of files in the cached directory listings per user.
+     */
+    @Value("#{environment.FTP_LISTING_CACHE_MAX_ENTRIES?:10000}")
+    private int listingCacheMaxEntries;
+
+    /**
+     * The maximum amount of concurrent uploads of all users.
+     */
+    @Value("#{environment.FTP_UPLOAD_THREADS?:32}")
+    private int uploadThreads;
+
+    /**
+     * The maximum amount of uploads waiting for a free upload thread.
+     */
+    @Value("#{environment.FTP_UPLOAD_QUEUE?:128}")
+    private int uploadQueue;
+
+    /**
+     * Run uploads on virtual threads.
+     */
+    @Value("#{environment.FTP_UPLOAD_VIRTUAL_THREADS?:false}")
+    private boolean uploadVirtualThreads;
+
+    /**
+     * Run the uploads, download segments, streamed listings and asynchronous metadata calls on virtual threads.
+     * The ftp commands and their other Webdav calls still run on the threads of the ftp server.
+     */
+    @Value("#{environment.FTP_VIRTUAL_THREADS?:false}")
+    private boolean virtualThreads;
+
+    /**
+     * The size of the buffer between the ftp data connection and the HTTP upload in bytes.
+     */
+    @Value("#{environment.FTP_UPLOAD_BUFFER_SIZE?:262144}")
+    private int uploadBufferSize;
+
+    /**
+     * The maximum size in bytes of an upload that is buffered in memory and sent at once. 0 disables it.
+     */
+    @Value("#{environment.FTP_UPLOAD_MEMORY_THRESHOLD?:0}")
+    private int uploadMemoryThreshold;
+
+    /**
+     * The memory in bytes for buffered uploads of all users together.
+     */
+    @Value("#{environment.FTP_UPLOAD_MEMORY_BUDGET?:67108864}")
+    private int uploadMemoryBudget;
+
+    /**
+     * The size of an upload chunk in bytes. 0 disables chunked uploads.
+     */
+    @Value("#{environment.FTP_UPLOAD_CHUNK_SIZE?:0}")
+    private int uploadChunkSize;
+
+    /**
+     * The maximum amount of chunks of one file uploading at the same time.
+     */
+    @Value("#{environment.FTP_UPLOAD_CHUNK_PARALLEL?:3}")
+    private int uploadChunkParallel;
+
+    /**
+     * The amount of retries of a failed upload chunk.
+     */
+    @Value("#{environment.FTP_UPLOAD_CHUNK_RETRIES?:3}")
+    private int uploadChunkRetries;
+
+    /**
+     * The minimum file size in bytes for downloading a file with parallel segments. 0 disables it.
+     */
+    @Value("#{environment.FTP_DOWNLOAD_SEGMENT_THRESHOLD?:0}")
+    private long downloadSegmentThreshold;
+
+    /**
+     * The size of a download segment in bytes.
+     */
+    @Value("#{environment.FTP_DOWNLOAD_SEGMENT_SIZE?:8388608}")
+    private int downloadSegmentSize;
+
+    /**
+     * The maximum amount of segments of one file downloading at the same time.
+     */
+    @Value("#{environment.FTP_DOWNLOAD_SEGMENTS?:4}")
+    private int downloadSegments;
+
+    /**
+     * The maximum amount of segments downloading at the same time, for all users together.
+     */
+    @Value("#{environment.FTP_DOWNLOAD_THREADS?:32}")
+    private int downloadThreads;
+
+    /**
+     * The maximum amount of directories listed at the same time by a recursive listing.
+     */
+    @Value("#{environment.FTP_LIST_RECURSIVE_PARALLEL?:4}")
+    private int listParallel;
+
+    /**
+     * The directory of the downloaded file cache, empty to disable it.
+     */
+    @Value("#{environment.FTP_CONTENT_CACHE_DIR?:''}")
+    private String contentCacheDir;
+
+    /**
+     * The maximum size of the downloaded file cache in bytes.
+     */
+    @Value("#{environment.FTP_CONTENT_CACHE_SIZE?:1073741824}")
+    private long contentCacheSize;
+
+    /**
+     * The maximum amount of threads running asynchronous Webdav calls of all users together.
+     */
+    @Value("#{environment.FTP_ASYNC_THREADS?:16}")
+    private int asyncThreads;
+
+    /**
+     * The maximum amount of HTTP connections of all users together.
+     */
+    @Value("#{environment.FTP_HTTP_MAX_CONNECTIONS?:200}")
+    private int httpMaxConnections;
+
+    /**
+     * The maximum amount of HTTP connections to a single Webdav server.
+     */
+    @Value("#{environment.FTP_HTTP_MAX_CONNECTIONS_PER_HOST?:50}")
+    private int httpMaxConnectionsPerHost;
+
+    /**
+     * The HTTP connect timeout in seconds.
+     */
+    @Value("#{environment.FTP_HTTP_CONNECT_TIMEOUT?:10}")
+    private int httpConnectTimeout;
+
+    /**
+     * The HTTP socket read timeout in seconds.
+     */
+    @Value("#{environment.FTP_HTTP_SOCKET_TIMEOUT?:300}")
+    private int httpSocketTimeout;
+
+    /**
+     * The maximum time in seconds an idle HTTP connection is kept open.
+     */
+    @Value("#{environment.FTP_HTTP_KEEP_ALIVE?:60}")
+    private int httpKeepAlive;
+
+    /**
+     * The HTTP connection pool shared by all users.
+     */
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    /**
+     * Closes idle and expired connections of the pool.
+     */
+    private IdleConnectionEvictor idleConnectionEvictor;
+
+    /**
+     * The upload executor shared by all users.
+     */
+    private TransferExecutor uploadExecutor;
+
+    /**
+     * The executor of download segments and recursive listings, shared by all users.
+     */
+    private TransferExecutor downloadExecutor;
+
+    /**
+     * The executor of asynchronous Webdav calls, shared by all users.
+     */
+    private TransferExecutor asyncExecutor;
+
+    /**
+     * The memory budget of buffered uploads, in bytes.
+     */
+    private Semaphore uploadMemory;
+
+    /**
+     * The downloaded file cache shared by all users, null when disabled.
+     */
+    private ContentCache contentCache;
+
+    /**
+     * Create the shared resources.
+     *
+     * @throws IOException Thrown when the content cache directory can't be used.
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(this.httpMaxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(this.httpMaxConnectionsPerHost);
+        // Check connections that were idle for a while, the server may have closed them.
+        this.connectionManager.setValidateAfterInactivity(2000);
+        this.idleConnectionEvictor = new IdleConnectionEvictor(this.connectionManager,
+                this.httpKeepAlive, TimeUnit.SECONDS);
+        this.idleConnectionEvictor.start();
+
+        this.uploadMemory = new Semaphore(Math.max(0, this.uploadMemoryBudget));
+        this.uploadExecutor = new TransferExecutor("upload", this.uploadThreads, this.uploadQueue,
+                this.uploadVirtualThreads || this.virtualThreads);
+        // Every download waits for at most the configured amount of its segments, so the queue is not limited.
+        this.downloadExecutor = new TransferExecutor("download", this.downloadThreads,
+                Integer.MAX_VALUE - this.downloadThreads, this.virtualThreads);
+        this.asyncExecutor = new TransferExecutor("webdav", this.asyncThreads, 0, this.virtualThreads);
+
+        if (!this.contentCacheDir.isEmpty() && this.contentCacheSize > 0) {
+            this.contentCache = new ContentCache(Paths.get(this.contentCacheDir), this.contentCacheSize);
+        }
+    }
+
+    /**
+     * Release the shared resources.
+     */
+    @PreDestroy
+    public void destroy() {
+        this.uploadExecutor.shutdown();
+        this.downloadExecutor.shutdown();
+        this.asyncExecutor.shutdown();
+        this.idleConnectionEvictor.shutdown();
+        this.connectionManager.shutdown();
+    }
+
+    /**
+     * Create a Webdav client for an user.
+     *
+     * @param stackUser The user.
+     * @return The Webdav client.
+     */
+    public WebdavClient create(StackUser stackUser) {
+        return new WebdavClient(stackUser, this);
+    }
+
+    /**
+     * Create a Sardine instance using the shared connection pool.
+     *
+     * @param username The username.
+     * @param password The password.
+     * @return The Sardine instance.
+     */
+    StackSardine createSardine(String username, String password) {
+        return SardineFactory.begin(username, password, this.connectionManager,
+                (int) TimeUnit.SECONDS.toMillis(this.httpConnectTimeout),
+                (int) TimeUnit.SECONDS.toMillis(this.httpSocketTimeout),
+                TimeUnit.SECONDS.toMillis(this.httpKeepAlive));
+    }
+
+    /**
+     * Create a metadata cache for a new user.
+     *
+     * @return The metadata cache.
+     */
+    MetadataCache createMetadataCache() {
+        return new MetadataCache(this.cacheTtl, this.cacheMaxEntries);
+    }
+
+    /**
+     * Create the known directories of a new user.
+     *
+     * @return The known directories.
+     */
+    KnownDirectories createKnownDirectories() {
+        return new KnownDirectories(this.cacheTtl, this.cacheMaxEntries);
+    }
+
+    /**
+     * Create a directory listing cache for a new user.
+     *
+     * @return The listing cache.
+     */
+    ListingCache createListingCache() {
+        return new ListingCache(this.listingCacheMaxEntries);
+    }
+
+    /**
+     * Get the upload executor shared by all users.
+     *
+     * @return The upload executor.
+     */
+    TransferExecutor getUploadExecutor() {
+        return this.uploadExecutor;
+    }
+
+    /**
+     * Get the upload buffer size.
+     *
+     * @return The buffer size in bytes.
+     */
+    int getUploadBufferSize() {
+        return this.uploadBufferSize;
+    }
+
+    /**
+     * Get the maximum size of an upload that is buffered in memory.
+     *
+     * @return The size in bytes, 0 when disabled.
+     */
+    int getUploadMemoryThreshold() {
+        return this.uploadMemoryThreshold;
+    }
+
+    /**
+     * Get the memory budget of buffered uploads, a buffered upload reserves the threshold.
+     *
+     * @return The budget in bytes.
+     */
+    Semaphore getUploadMemoryBudget() {
+        return this.uploadMemory;
+    }
+
+    /**
+     * Get the upload chunk size.
+     *
+     * @return The chunk size in bytes, 0 when chunked uploads are disabled.
+     */
+    int getUploadChunkSize() {
+        return this.uploadChunkSize;
+    }
+
+    /**
+     * Get the maximum amount of parallel chunks of one upload.
+     *
+     * @return The amount of chunks.
+     */
+    int getUploadChunkParallel() {
+        return this.uploadChunkParallel;
+    }
+
+    /**
+     * Get the amount of retries of a failed upload chunk.
+     *
+     * @return The amount of retries.
+     */
+    int getUploadChunkRetries() {
+        return this.uploadChunkRetries;
+    }
+
+    /**
+     * Get the segment download executor shared by all users.
+     *
+     * @return The download executor.
+     */
+    TransferExecutor getDownloadExecutor() {
+        return this.downloadExecutor;
+    }
+
+    /**
+     * Get the executor of asynchronous Webdav calls shared by all users.
+     *
+     * @return The executor.
+     */
+    TransferExecutor getAsyncExecutor() {
+        return this.asyncExecutor;
+    }
+
+    /**
+     * Get the downloaded file cache shared by all users.
+     *
+     * @return The cache or null when disabled.
+     */
+    ContentCache getContentCache() {
+        return this.contentCache;
+    }
+
+    /**
+     * Get the minimum file size for segmented downloads.
+     *
+     * @return The size in bytes, 0 when disabled.
+     */
+    long getDownloadSegmentThreshold() {
+        return this.downloadSegmentThreshold;
+    }
+
+    /**
+     * Get the download segment size.
+     *
+     * @return The segment size in bytes.
+     */
+    int getDownloadSegmentSize() {
+        return this.downloadSegmentSize;
+    }
+
+    /**
+     * Get the maximum amount of parallel segments of one download.
+     *
+     * @return The amount of segments.
+     */
+    int getDownloadSegments() {
+        return this.downloadSegments;
+    }
+
+    /**
+     * Get the maximum amount of directories listed at the same time by a recursive listing.
+     *
+     * @return The amount of directories.
+     */
+    int getListParallel() {
+        return this.listParallel;
+    }
+}
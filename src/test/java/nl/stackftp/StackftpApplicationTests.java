@@ -90,11 +90,7 @@ public class StackftpApplicationTests {
             throw new Exception("Upload has failed");
         }
 
-        // Wait for webdav upload.
-        // This is needed because the file get's uploaded in a thread.
-        // When the thread isn't finished before the delete the file won't exist on the webdav server.
-        Thread.sleep(2000);
-
+        // No need to wait, the store only succeeds when the file exists on the webdav server.
         boolean deleteSuccess = ftpClient.deleteFile(fileName);
 
         if (!deleteSuccess) {
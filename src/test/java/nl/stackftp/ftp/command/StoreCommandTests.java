@@ -0,0 +1,250 @@
+package nl.stackftp.ftp.command;
+
+import nl.stackftp.webdav.AbortableUpload;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.ServerDataConnectionFactory;
+import org.apache.ftpserver.impl.ServerFtpStatistics;
+import org.apache.mina.core.future.WriteFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StoreCommandTests {
+
+    /**
+     * The ftp session.
+     */
+    private FtpIoSession session;
+
+    /**
+     * The ftp server context.
+     */
+    private FtpServerContext context;
+
+    /**
+     * The STOR request.
+     */
+    private FtpRequest request;
+
+    /**
+     * The data connection.
+     */
+    private DataConnection dataConnection;
+
+    /**
+     * The stored file.
+     */
+    private FtpFile file;
+
+    /**
+     * The statistics of the server.
+     */
+    private ServerFtpStatistics statistics;
+
+    /**
+     * The upload of the stored file.
+     */
+    private RecordingUpload upload;
+
+    /**
+     * Mock a session that stores /file.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.session = mock(FtpIoSession.class);
+        this.context = mock(FtpServerContext.class);
+        this.request = mock(FtpRequest.class);
+        this.dataConnection = mock(DataConnection.class);
+        this.file = mock(FtpFile.class);
+        this.statistics = mock(ServerFtpStatistics.class);
+        this.upload = new RecordingUpload();
+
+        FileSystemView fileSystemView = mock(FileSystemView.class);
+        ServerDataConnectionFactory dataConnectionFactory = mock(ServerDataConnectionFactory.class);
+
+        when(this.request.getArgument()).thenReturn("file");
+        when(this.session.getFileSystemView()).thenReturn(fileSystemView);
+        when(this.session.getDataConnection()).thenReturn(dataConnectionFactory);
+        when(this.session.write(anyObject())).thenReturn(mock(WriteFuture.class));
+        when(this.context.getFtpStatistics()).thenReturn(this.statistics);
+        when(fileSystemView.getFile("file")).thenReturn(this.file);
+        when(dataConnectionFactory.openConnection()).thenReturn(this.dataConnection);
+        when(this.file.getAbsolutePath()).thenReturn("/file");
+        when(this.file.isWritable()).thenReturn(true);
+        when(this.file.createOutputStream(anyLong())).thenReturn(this.upload);
+    }
+
+    /**
+     * A complete transfer closes the upload, which stores the file.
+     */
+    @Test
+    public void completeTransferClosesUpload() throws Exception {
+        when(this.dataConnection.transferFromClient(any(FtpSession.class), any(OutputStream.class)))
+                .thenReturn(10L);
+
+        new StoreCommand("STOR", false).execute(this.session, this.context, this.request);
+
+        assertTrue(this.upload.closed);
+        assertFalse(this.upload.aborted);
+        assertEquals(FtpReply.REPLY_226_CLOSING_DATA_CONNECTION, this.getLastReplyCode());
+        verify(this.statistics).setUpload(this.session, this.file, 10L);
+    }
+
+    /**
+     * A dropped data connection aborts the upload, so the received part isn't stored as the whole file.
+     */
+    @Test
+    public void droppedConnectionAbortsUpload() throws Exception {
+        when(this.dataConnection.transferFromClient(any(FtpSession.class), any(OutputStream.class)))
+                .thenThrow(new SocketException("Connection reset"));
+
+        new StoreCommand("STOR", false).execute(this.session, this.context, this.request);
+
+        assertTrue(this.upload.aborted);
+        assertFalse(this.upload.closed);
+        assertEquals(FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED, this.getLastReplyCode());
+        verify(this.statistics, never()).setUpload(any(FtpIoSession.class), any(FtpFile.class), anyLong());
+    }
+
+    /**
+     * A failed transfer aborts the upload.
+     */
+    @Test
+    public void failedTransferAbortsUpload() throws Exception {
+        when(this.dataConnection.transferFromClient(any(FtpSession.class), any(OutputStream.class)))
+                .thenThrow(new IOException("Upload failed"));
+
+        new StoreCommand("STOR", false).execute(this.session, this.context, this.request);
+
+        assertTrue(this.upload.aborted);
+        assertFalse(this.upload.closed);
+        assertEquals(FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN, this.getLastReplyCode());
+    }
+
+    /**
+     * A complete transfer that can't be stored is reported as failed.
+     */
+    @Test
+    public void failedCloseReportsFailure() throws Exception {
+        when(this.dataConnection.transferFromClient(any(FtpSession.class), any(OutputStream.class)))
+                .thenReturn(10L);
+        this.upload.closeException = new IOException("Assembling failed");
+
+        new StoreCommand("STOR", false).execute(this.session, this.context, this.request);
+
+        assertTrue(this.upload.closed);
+        assertEquals(FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN, this.getLastReplyCode());
+    }
+
+    /**
+     * An upload that can't be aborted is closed after a failed transfer.
+     */
+    @Test
+    public void failedTransferClosesNotAbortableUpload() throws Exception {
+        OutputStream outputStream = mock(OutputStream.class);
+        when(this.file.createOutputStream(anyLong())).thenReturn(outputStream);
+        doThrow(new SocketException("Connection reset")).when(this.dataConnection)
+                .transferFromClient(any(FtpSession.class), any(OutputStream.class));
+
+        new StoreCommand("STOR", false).execute(this.session, this.context, this.request);
+
+        verify(outputStream).close();
+        assertEquals(FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED, this.getLastReplyCode());
+    }
+
+    /**
+     * Get the code of the last reply written to the session.
+     *
+     * @return The reply code.
+     */
+    private int getLastReplyCode() {
+        ArgumentCaptor<Object> replies = ArgumentCaptor.forClass(Object.class);
+        verify(this.session, atLeastOnce()).write(replies.capture());
+        List<Object> values = replies.getAllValues();
+
+        return ((FtpReply) values.get(values.size() - 1)).getCode();
+    }
+
+    /**
+     * An upload that records if it was closed or aborted.
+     */
+    private static final class RecordingUpload extends OutputStream implements AbortableUpload {
+
+        /**
+         * Is the upload closed.
+         */
+        private boolean closed = false;
+
+        /**
+         * Is the upload aborted.
+         */
+        private boolean aborted = false;
+
+        /**
+         * Thrown by close, null to succeed.
+         */
+        private IOException closeException;
+
+        /**
+         * Discard a byte.
+         *
+         * @param b The byte.
+         */
+        @Override
+        public void write(int b) {
+        }
+
+        /**
+         * Store the file.
+         *
+         * @throws IOException The close exception when set.
+         */
+        @Override
+        public void close() throws IOException {
+            if (this.aborted) {
+                return;
+            }
+
+            this.closed = true;
+
+            if (this.closeException != null) {
+                throw this.closeException;
+            }
+        }
+
+        /**
+         * Stop the upload without storing the file.
+         */
+        @Override
+        public void abort() {
+            if (!this.closed) {
+                this.aborted = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package nl.stackftp.webdav;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class BufferedUploadOutputStreamTests {
+
+    /**
+     * A file smaller than the threshold is sent at once on close.
+     */
+    @Test
+    public void sendsSmallFilesOnClose() throws Exception {
+        Semaphore budget = new Semaphore(0);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+        try (BufferedUploadOutputStream outputStream = new BufferedUploadOutputStream(8, budget,
+                (bytes, length) -> {
+                    sent.write(bytes, 0, length);
+                    return CompletableFuture.completedFuture(null);
+                }, () -> {
+                    throw new AssertionError("Must not stream");
+                })) {
+            outputStream.write("0123".getBytes(StandardCharsets.UTF_8));
+            outputStream.write('4');
+            assertEquals(0, sent.size());
+        }
+
+        assertEquals("01234", new String(sent.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(8, budget.availablePermits());
+    }
+
+    /**
+     * A file bigger than the threshold is streamed, starting with the buffered bytes.
+     */
+    @Test
+    public void streamsBigFiles() throws Exception {
+        Semaphore budget = new Semaphore(0);
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        byte[] bytes = new byte[20];
+        Arrays.fill(bytes, (byte) 'x');
+
+        try (BufferedUploadOutputStream outputStream = new BufferedUploadOutputStream(8, budget,
+                (buffer, length) -> {
+                    throw new AssertionError("Must not buffer");
+                }, () -> streamed)) {
+            outputStream.write(bytes, 0, 6);
+            outputStream.write(bytes, 6, 14);
+            assertEquals(8, budget.availablePermits());
+        }
+
+        assertEquals(20, streamed.size());
+    }
+
+    /**
+     * When the streaming upload can't be started the buffered start of the file is never sent.
+     */
+    @Test
+    public void failedStreamingStartDoesNotSendBuffer() throws Exception {
+        Semaphore budget = new Semaphore(0);
+        IOException failure = new IOException("Backend unavailable");
+        BufferedUploadOutputStream outputStream = new BufferedUploadOutputStream(8, budget,
+                (bytes, length) -> {
+                    throw new AssertionError("Must not send the buffer");
+                }, () -> {
+                    throw failure;
+                });
+
+        outputStream.write("0123".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            outputStream.write("456789".getBytes(StandardCharsets.UTF_8));
+            fail("Writing must fail");
+        } catch (IOException ex) {
+            assertSame(failure, ex);
+        }
+
+        assertEquals(8, budget.availablePermits());
+
+        try {
+            outputStream.close();
+            fail("Closing must fail");
+        } catch (IOException ex) {
+            assertSame(failure, ex);
+        }
+    }
+
+    /**
+     * An aborted upload is never sent, also not when it's closed afterwards.
+     */
+    @Test
+    public void abortedUploadIsNotSent() throws Exception {
+        Semaphore budget = new Semaphore(0);
+        BufferedUploadOutputStream outputStream = new BufferedUploadOutputStream(8, budget,
+                (bytes, length) -> {
+                    throw new AssertionError("Must not send the buffer");
+                }, () -> {
+                    throw new AssertionError("Must not stream");
+                });
+
+        outputStream.write("0123".getBytes(StandardCharsets.UTF_8));
+        outputStream.abort();
+        outputStream.close();
+
+        assertEquals(8, budget.availablePermits());
+    }
+}
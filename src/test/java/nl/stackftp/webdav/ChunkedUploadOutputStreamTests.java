@@ -0,0 +1,168 @@
+package nl.stackftp.webdav;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkedUploadOutputStreamTests {
+
+    /**
+     * The path of the chunk collection.
+     */
+    private static final String CHUNKS = WebdavTestServer.UPLOADS + "/stackftp-test";
+
+    /**
+     * The Webdav server.
+     */
+    private WebdavTestServer server;
+
+    /**
+     * The client doing the requests.
+     */
+    private StackSardine sardine;
+
+    /**
+     * The executor uploading the chunks.
+     */
+    private TransferExecutor executor;
+
+    /**
+     * The values passed to the close listener.
+     */
+    private final List<Boolean> closes = new ArrayList<>();
+
+    /**
+     * Start the server.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.server = new WebdavTestServer();
+        this.sardine = this.server.createSardine();
+        this.executor = new TransferExecutor("test", 4, 16, false);
+    }
+
+    /**
+     * Stop the server.
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.executor.shutdown();
+        this.sardine.shutdown();
+        this.server.close();
+    }
+
+    /**
+     * An aborted upload keeps its chunks, resuming inside a chunk truncates it to the offset and removes the later
+     * chunks. The chunk is truncated by downloading its first part and uploading it again with the new data.
+     */
+    @Test
+    public void resumesInsideChunk() throws Exception {
+        byte[] content = createContent(40);
+
+        ChunkedUploadOutputStream outputStream = this.open(0);
+        outputStream.write(content, 0, 25);
+        outputStream.abort();
+
+        assertEquals(Arrays.asList(CHUNKS + "/000000000000000", CHUNKS + "/000000000000010",
+                CHUNKS + "/000000000000020"), this.server.getChildren(CHUNKS));
+        assertFalse(this.server.exists(WebdavTestServer.FILES + "/file"));
+        this.server.takeRequests();
+
+        outputStream = this.open(15);
+        assertTrue(this.server.takeRequests().containsAll(Arrays.asList(
+                "GET " + CHUNKS + "/000000000000010",
+                "DELETE " + CHUNKS + "/000000000000010",
+                "DELETE " + CHUNKS + "/000000000000020")));
+        assertEquals(Arrays.asList(CHUNKS + "/000000000000000"), this.server.getChildren(CHUNKS));
+
+        outputStream.write(content, 15, 25);
+        outputStream.close();
+
+        assertArrayEquals(content, this.server.getFile(WebdavTestServer.FILES + "/file"));
+        assertFalse(this.server.exists(CHUNKS));
+        assertEquals(Arrays.asList(false, true), this.closes);
+    }
+
+    /**
+     * Resuming at a chunk boundary keeps the chunks before it without downloading them.
+     */
+    @Test
+    public void resumesAtChunkBoundary() throws Exception {
+        byte[] content = createContent(30);
+
+        ChunkedUploadOutputStream outputStream = this.open(0);
+        outputStream.write(content, 0, 25);
+        outputStream.abort();
+        this.server.takeRequests();
+
+        outputStream = this.open(20);
+
+        for (String request : this.server.takeRequests()) {
+            assertFalse(request, request.startsWith("GET "));
+        }
+
+        outputStream.write(content, 20, 10);
+        outputStream.close();
+
+        assertArrayEquals(content, this.server.getFile(WebdavTestServer.FILES + "/file"));
+    }
+
+    /**
+     * Resuming after the uploaded chunks fails and keeps the chunks.
+     */
+    @Test
+    public void refusesResumeAfterUploadedChunks() throws Exception {
+        ChunkedUploadOutputStream outputStream = this.open(0);
+        outputStream.write(createContent(25), 0, 25);
+        outputStream.abort();
+
+        try {
+            this.open(30);
+            fail("Only 25 bytes are uploaded");
+        } catch (IOException ex) {
+            assertEquals("Can't resume at 30, only 25 bytes are uploaded", ex.getMessage());
+        }
+
+        assertEquals(3, this.server.getChildren(CHUNKS).size());
+    }
+
+    /**
+     * Open the chunked upload of the test file.
+     *
+     * @param offset The offset to start at.
+     * @return The upload.
+     * @throws IOException Thrown when the upload can't be started or resumed.
+     */
+    private ChunkedUploadOutputStream open(long offset) throws IOException {
+        return ChunkedUploadOutputStream.open(this.sardine, this.server.getUrl(CHUNKS),
+                this.server.getUrl("/remote.php/dav/files/" + WebdavTestServer.USER + "/file"), offset, 10, 2, 0,
+                this.executor, this.closes::add);
+    }
+
+    /**
+     * Create file content.
+     *
+     * @param size The size in bytes.
+     * @return The content.
+     */
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+
+        return content;
+    }
+}
@@ -0,0 +1,103 @@
+package nl.stackftp.webdav;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentCacheTests {
+
+    /**
+     * The cache directory.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A completely read download is cached and served from an offset.
+     */
+    @Test
+    public void cachesCompleteDownloads() throws Exception {
+        ContentCache cache = new ContentCache(this.folder.getRoot().toPath(), 1000);
+        String key = ContentCache.getKey("server", "user", "/file", "\"etag\"");
+
+        assertEquals("0123456789", read(cache.store(key, 10, stream("0123456789"))));
+        assertTrue(cache.contains(key));
+        assertEquals("23456789", read(cache.open(key, 2)));
+
+        // Files cached before a restart are used again.
+        assertTrue(new ContentCache(this.folder.getRoot().toPath(), 1000).contains(key));
+    }
+
+    /**
+     * Partly read and incomplete downloads are not cached, the least recently used files are evicted.
+     */
+    @Test
+    public void discardsIncompleteDownloadsAndEvicts() throws Exception {
+        ContentCache cache = new ContentCache(this.folder.getRoot().toPath(), 20);
+        String partial = ContentCache.getKey("server", "user", "/partial", "\"etag\"");
+        String truncated = ContentCache.getKey("server", "user", "/truncated", "\"etag\"");
+
+        try (InputStream inputStream = cache.store(partial, 10, stream("0123456789"))) {
+            assertEquals('0', inputStream.read());
+        }
+
+        read(cache.store(truncated, 10, stream("01234")));
+        assertFalse(cache.contains(partial));
+        assertFalse(cache.contains(truncated));
+
+        String first = ContentCache.getKey("server", "user", "/first", "\"etag\"");
+        String second = ContentCache.getKey("server", "user", "/second", "\"etag\"");
+        String third = ContentCache.getKey("server", "user", "/third", "\"etag\"");
+        read(cache.store(first, 5, stream("01234")));
+        read(cache.store(second, 10, stream("0123456789")));
+        read(cache.open(first, 0));
+        read(cache.store(third, 10, stream("0123456789")));
+
+        assertTrue(cache.contains(first));
+        assertFalse(cache.contains(second));
+        assertTrue(cache.contains(third));
+        assertEquals(2, this.folder.getRoot().list().length);
+    }
+
+    /**
+     * Create a stream of a text.
+     *
+     * @param text The text.
+     * @return The stream.
+     */
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read and close a stream.
+     *
+     * @param inputStream The stream.
+     * @return The text.
+     * @throws IOException Thrown when reading failed.
+     */
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (InputStream input = inputStream) {
+            byte[] buffer = new byte[3];
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
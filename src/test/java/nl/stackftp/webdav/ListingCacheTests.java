@@ -0,0 +1,50 @@
+package nl.stackftp.webdav;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ListingCacheTests {
+
+    /**
+     * A listing is valid as long as the etag of the directory is the same.
+     */
+    @Test
+    public void listingIsValidatedWithEtag() {
+        ListingCache cache = new ListingCache(10);
+        cache.put("/dir", new FileMetadata(true, true, 0, 1000, "\"a\"", null), Collections.emptyList());
+
+        ListingCache.Listing listing = cache.get("/dir");
+        assertTrue(listing.isValid(new FileMetadata(true, true, 0, 2000, "\"a\"", null)));
+        assertFalse(listing.isValid(new FileMetadata(true, true, 0, 1000, "\"b\"", null)));
+        assertFalse(listing.isValid(FileMetadata.notFound()));
+    }
+
+    /**
+     * The least recently used listings are removed when the cache has too many files.
+     */
+    @Test
+    public void evictsLeastRecentlyUsedListings() {
+        ListingCache cache = new ListingCache(10);
+        FileMetadata directory = new FileMetadata(true, true, 0, 1000, "\"a\"", null);
+
+        cache.put("/a", directory, Collections.nCopies(4, null));
+        cache.put("/b", directory, Collections.nCopies(4, null));
+        cache.get("/a");
+        cache.put("/c", directory, Collections.nCopies(4, null));
+        cache.put("/d", directory, Collections.nCopies(11, null));
+
+        assertNotNull(cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertNotNull(cache.get("/c"));
+        assertNull(cache.get("/d"));
+
+        cache.invalidate("/a/file");
+        assertNull(cache.get("/a"));
+    }
+}
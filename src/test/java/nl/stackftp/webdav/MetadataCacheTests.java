@@ -0,0 +1,53 @@
+package nl.stackftp.webdav;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetadataCacheTests {
+
+    /**
+     * The metadata of a directory.
+     */
+    private static final FileMetadata DIRECTORY = new FileMetadata(true, true, 0, 0, "\"dir\"", null);
+
+    /**
+     * The metadata of a file.
+     */
+    private static final FileMetadata FILE = new FileMetadata(true, false, 12, 0, "\"file\"", "text/plain");
+
+    /**
+     * Paths that aren't in a completely listed directory don't exist.
+     */
+    @Test
+    public void completeListingAnswersMissingChildren() {
+        MetadataCache cache = new MetadataCache(60, 100);
+
+        long generation = cache.put("/dir", DIRECTORY);
+        cache.put("/dir/file", FILE);
+        assertNull(cache.get("/dir/other"));
+
+        cache.markComplete("/dir", generation);
+        assertTrue(cache.get("/dir/file").exists());
+        assertFalse(cache.get("/dir/other").exists());
+        assertNull(cache.get("/dir/sub/other"));
+    }
+
+    /**
+     * A listing isn't complete when a child has been removed while listing.
+     */
+    @Test
+    public void removedChildMakesListingIncomplete() {
+        MetadataCache cache = new MetadataCache(60, 100);
+
+        long generation = cache.put("/dir", DIRECTORY);
+        cache.put("/dir/file", FILE);
+        cache.invalidate("/dir/file/x");
+        cache.markComplete("/dir", generation);
+
+        assertNull(cache.get("/dir/file"));
+        assertNull(cache.get("/dir/other"));
+    }
+}
@@ -0,0 +1,75 @@
+package nl.stackftp.webdav;
+
+import com.github.sardine.impl.methods.HttpPropFind;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MultistatusReaderTests {
+
+    /**
+     * A Depth: 1 response of a directory with a subdirectory and a file, like Nextcloud sends it.
+     */
+    private static final String RESPONSE = "<?xml version=\"1.0\"?>\n"
+            + "<d:multistatus xmlns:d=\"DAV:\" xmlns:oc=\"http://owncloud.org/ns\">\n"
+            + " <d:response>\n"
+            + "  <d:href>/remote.php/webdav/dir/</d:href>\n"
+            + "  <d:propstat>\n"
+            + "   <d:prop><d:resourcetype><d:collection/></d:resourcetype>"
+            + "<d:getlastmodified>Mon, 02 Oct 2017 10:00:00 GMT</d:getlastmodified>"
+            + "<d:getetag>&quot;dir-etag&quot;</d:getetag></d:prop>\n"
+            + "   <d:status>HTTP/1.1 200 OK</d:status>\n"
+            + "  </d:propstat>\n"
+            + "  <d:propstat>\n"
+            + "   <d:prop><d:getcontentlength/><oc:checksums/></d:prop>\n"
+            + "   <d:status>HTTP/1.1 404 Not Found</d:status>\n"
+            + "  </d:propstat>\n"
+            + " </d:response>\n"
+            + " <d:response>\n"
+            + "  <d:href>/remote.php/webdav/dir/some%20file.txt</d:href>\n"
+            + "  <d:propstat>\n"
+            + "   <d:prop><d:resourcetype/><d:getcontentlength>1234</d:getcontentlength>"
+            + "<oc:checksums><oc:checksum>SHA1:abc</oc:checksum></oc:checksums>"
+            + "<d:getetag>\"file-etag\"</d:getetag></d:prop>\n"
+            + "   <d:status>HTTP/1.1 200 OK</d:status>\n"
+            + "  </d:propstat>\n"
+            + " </d:response>\n"
+            + " <d:response>\n"
+            + "  <d:href>/remote.php/webdav/dir/gone</d:href>\n"
+            + "  <d:status>HTTP/1.1 404 Not Found</d:status>\n"
+            + " </d:response>\n"
+            + "</d:multistatus>\n";
+
+    /**
+     * The resources must be read in order with their properties, failed resources are skipped.
+     */
+    @Test
+    public void readsResourcesInOrder() throws Exception {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 207, "Multi-Status");
+        response.setEntity(new StringEntity(RESPONSE, ContentType.APPLICATION_XML));
+
+        try (MultistatusReader reader = new MultistatusReader(new HttpPropFind("http://localhost/"), response)) {
+            MultistatusReader.Resource directory = reader.next();
+            assertEquals("/remote.php/webdav/dir/", directory.getPath());
+            assertTrue(directory.getMetadata().isDirectory());
+            assertEquals(0, directory.getMetadata().getSize());
+            assertEquals(1506938400000L, directory.getMetadata().getLastModified());
+            assertEquals("\"dir-etag\"", directory.getMetadata().getEtag());
+
+            MultistatusReader.Resource file = reader.next();
+            assertEquals("/remote.php/webdav/dir/some file.txt", file.getPath());
+            assertFalse(file.getMetadata().isDirectory());
+            assertEquals(1234, file.getMetadata().getSize());
+            assertEquals("\"file-etag\"", file.getMetadata().getEtag());
+
+            assertNull(reader.next());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package nl.stackftp.webdav;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PathCodecTests {
+
+    /**
+     * Reserved and non-ASCII characters are encoded, unreserved paths are used as is.
+     */
+    @Test
+    public void encodesPaths() {
+        PathCodec pathCodec = new PathCodec("https://stack.example/remote.php/webdav");
+
+        assertEquals("https://stack.example/remote.php/webdav/a%20b/c%23d%25e%3Ff%2Bg",
+                pathCodec.toUrl("/a b/c#d%e?f+g"));
+        assertEquals("https://stack.example/remote.php/webdav/caf%C3%A9", pathCodec.toUrl("/café"));
+        assertEquals("us%2Fer", PathCodec.encodeSegment("us/er"));
+
+        String plain = "/dir/file-1.txt";
+        assertSame(plain, PathCodec.encodePath(plain));
+    }
+
+    /**
+     * Hrefs are decoded and converted to ftp paths below the base url.
+     */
+    @Test
+    public void decodesHrefs() throws Exception {
+        PathCodec pathCodec = new PathCodec("https://stack.example/remote.php/webdav");
+
+        assertEquals("/a b/c#d%e?f+g", pathCodec.toPath(PathCodec.decode(
+                PathCodec.getPath("/remote.php/webdav/a%20b/c%23d%25e%3Ff%2bg"))));
+        assertEquals("/café/", PathCodec.decode("/caf%C3%A9/"));
+        assertEquals("/café", PathCodec.decode("/café"));
+        assertEquals("/dir", pathCodec.toPath(PathCodec.decode(
+                PathCodec.getPath("https://stack.example/remote.php/webdav/dir/"))));
+        assertEquals("/", pathCodec.toPath("/remote.php/webdav/"));
+    }
+
+    /**
+     * Resources outside the base url are refused.
+     */
+    @Test(expected = IOException.class)
+    public void refusesOtherPaths() throws Exception {
+        new PathCodec("https://stack.example/remote.php/webdav").toPath("/remote.php/webdavx/file");
+    }
+}
@@ -0,0 +1,190 @@
+package nl.stackftp.webdav;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentedInputStreamTests {
+
+    /**
+     * The path of the downloaded file.
+     */
+    private static final String PATH = WebdavTestServer.FILES + "/file";
+
+    /**
+     * The Webdav server.
+     */
+    private WebdavTestServer server;
+
+    /**
+     * The client doing the requests.
+     */
+    private StackSardine sardine;
+
+    /**
+     * The executor downloading the segments.
+     */
+    private TransferExecutor executor;
+
+    /**
+     * Start the server.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.server = new WebdavTestServer();
+        this.sardine = this.server.createSardine();
+        this.executor = new TransferExecutor("test", 4, 16, false);
+    }
+
+    /**
+     * Stop the server.
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.executor.shutdown();
+        this.sardine.shutdown();
+        this.server.close();
+    }
+
+    /**
+     * The segments are returned in file order, starting at the offset.
+     */
+    @Test
+    public void downloadsSegmentsInOrder() throws Exception {
+        byte[] content = createContent(100, 0);
+        this.server.putFile(PATH, content);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 25, 100), this.download(25, 100));
+    }
+
+    /**
+     * A file that changes between segments fails the download instead of mixing the versions.
+     */
+    @Test
+    public void failsWhenChangedBetweenSegments() throws Exception {
+        this.server.putFile(PATH, createContent(100, 0));
+        AtomicInteger gets = new AtomicInteger();
+        this.server.setBeforeRequest((method, path) -> {
+            if (method.equals("GET") && gets.incrementAndGet() == 2) {
+                this.server.putFile(PATH, createContent(100, 1));
+            }
+        });
+
+        try (InputStream inputStream = new SegmentedInputStream(this.sardine, this.server.getUrl(PATH),
+                this.server.getEtag(PATH), 0, 100, 10, 1, this.executor)) {
+            byte[] bytes = new byte[100];
+            assertEquals(10, inputStream.read(bytes));
+
+            try {
+                readFully(inputStream);
+                fail("The file changed during the download");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().endsWith("changed during the download"));
+            }
+        }
+    }
+
+    /**
+     * A file that changed before the download started is downloaded with a single request.
+     */
+    @Test
+    public void fallsBackWhenChangedBeforeStart() throws Exception {
+        this.server.putFile(PATH, createContent(100, 0));
+        String etag = this.server.getEtag(PATH);
+        byte[] content = createContent(120, 1);
+        this.server.putFile(PATH, content);
+
+        try (InputStream inputStream = new SegmentedInputStream(this.sardine, this.server.getUrl(PATH), etag, 0,
+                100, 10, 2, this.executor)) {
+            assertArrayEquals(content, readFully(inputStream));
+        }
+    }
+
+    /**
+     * A file size that doesn't match the content range is a changed file, even without etag.
+     */
+    @Test
+    public void fallsBackWhenSizeDiffers() throws Exception {
+        byte[] content = createContent(120, 0);
+        this.server.putFile(PATH, content);
+
+        try (InputStream inputStream = new SegmentedInputStream(this.sardine, this.server.getUrl(PATH), null, 0,
+                100, 10, 2, this.executor)) {
+            assertArrayEquals(content, readFully(inputStream));
+        }
+    }
+
+    /**
+     * A server without range support sends the rest of the file with a single request.
+     */
+    @Test
+    public void fallsBackWithoutRangeSupport() throws Exception {
+        byte[] content = createContent(100, 0);
+        this.server.putFile(PATH, content);
+        this.server.setRangesSupported(false);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 25, 100), this.download(25, 100));
+    }
+
+    /**
+     * Download the test file.
+     *
+     * @param offset The offset to start at.
+     * @param size The file size.
+     * @return The downloaded bytes.
+     * @throws IOException Thrown when the download failed.
+     */
+    private byte[] download(long offset, long size) throws IOException {
+        try (InputStream inputStream = new SegmentedInputStream(this.sardine, this.server.getUrl(PATH),
+                this.server.getEtag(PATH), offset, size, 10, 3, this.executor)) {
+            return readFully(inputStream);
+        }
+    }
+
+    /**
+     * Create file content.
+     *
+     * @param size The size in bytes.
+     * @param version The version, different versions have different content.
+     * @return The content.
+     */
+    private static byte[] createContent(int size, int version) {
+        byte[] content = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i + version * 7);
+        }
+
+        return content;
+    }
+
+    /**
+     * Read a stream to the end.
+     *
+     * @param inputStream The stream.
+     * @return The bytes.
+     * @throws IOException Thrown when reading failed.
+     */
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package nl.stackftp.webdav;
+
+import nl.stackftp.concurrent.ThreadFactories;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransferExecutorTests {
+
+    /**
+     * Cancelling queued transfers gives their slots back, the running transfer keeps its slot until it finishes.
+     */
+    @Test
+    public void cancelledTransfersReleaseTheirSlots() throws Exception {
+        TransferExecutor executor = new TransferExecutor("test", 1, 2, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        try {
+            Future<Object> running = executor.submit(() -> {
+                started.countDown();
+                finish.await();
+
+                return null;
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Future<Object> first = executor.submit(() -> null);
+            Future<Object> second = executor.submit(() -> null);
+            assertEquals(0, executor.getAvailableSlots());
+
+            first.cancel(false);
+            second.cancel(false);
+            assertEquals(2, executor.getAvailableSlots());
+
+            finish.countDown();
+            running.get(5, TimeUnit.SECONDS);
+
+            // The slot is released after the waiting threads are woken up.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+            while (executor.getAvailableSlots() < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(3, executor.getAvailableSlots());
+        } finally {
+            finish.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A segmented download and a chunked upload on virtual threads don't pin their carrier threads.
+     * Only runs on Java 21 and newer with -Djdk.tracePinnedThreads, which prints a stack trace for every pinning.
+     */
+    @Test
+    public void transfersDontPinVirtualThreads() throws Exception {
+        Assume.assumeNotNull(ThreadFactories.virtual("test-"));
+        Assume.assumeNotNull(System.getProperty("jdk.tracePinnedThreads"));
+
+        byte[] content = new byte[1000];
+        Arrays.fill(content, (byte) 1);
+        PrintStream out = System.out;
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        TransferExecutor executor = new TransferExecutor("test", 4, 16, true);
+
+        try (WebdavTestServer server = new WebdavTestServer()) {
+            StackSardine sardine = server.createSardine();
+            String path = WebdavTestServer.FILES + "/file";
+            System.setOut(new PrintStream(trace, true));
+
+            try (ChunkedUploadOutputStream outputStream = ChunkedUploadOutputStream.open(sardine,
+                    server.getUrl(WebdavTestServer.UPLOADS + "/stackftp-test"),
+                    server.getUrl("/remote.php/dav/files/" + WebdavTestServer.USER + "/file"), 0, 100, 4, 0,
+                    executor, stored -> { })) {
+                outputStream.write(content);
+            }
+
+            ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+
+            try (InputStream inputStream = new SegmentedInputStream(sardine, server.getUrl(path),
+                    server.getEtag(path), 0, content.length, 100, 4, executor)) {
+                byte[] buffer = new byte[64];
+                int read;
+
+                while ((read = inputStream.read(buffer)) != -1) {
+                    downloaded.write(buffer, 0, read);
+                }
+            }
+
+            assertArrayEquals(content, downloaded.toByteArray());
+        } finally {
+            System.setOut(out);
+            executor.shutdown();
+        }
+
+        // Every pinning prints the frames holding a monitor, marked with "<== monitors".
+        String output = new String(trace.toByteArray(), StandardCharsets.UTF_8);
+        assertFalse(output, output.contains("<== monitors"));
+    }
+}
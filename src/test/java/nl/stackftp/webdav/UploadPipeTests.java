@@ -0,0 +1,74 @@
+package nl.stackftp.webdav;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class UploadPipeTests {
+
+    /**
+     * Everything written to the pipe must be sent by the entity in order,
+     * also when the content is a lot bigger than the ring buffer.
+     */
+    @Test
+    public void entitySendsWrittenBytes() throws Exception {
+        byte[] content = new byte[1024 * 1024 + 123];
+        new Random(42).nextBytes(content);
+
+        UploadPipe pipe = new UploadPipe(4096);
+        OutputStream outputStream = pipe.getOutputStream();
+
+        Thread writer = new Thread(() -> {
+            try {
+                // Write in odd sized parts so writes wrap around the end of the buffer.
+                for (int offset = 0; offset < content.length; offset += 1000) {
+                    outputStream.write(content, offset, Math.min(1000, content.length - offset));
+                }
+                outputStream.close();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        writer.start();
+
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        pipe.getEntity().writeTo(sent);
+        writer.join();
+
+        assertArrayEquals(content, sent.toByteArray());
+        assertEquals(content.length, pipe.getTransferred());
+    }
+
+    /**
+     * A writer waiting for space must fail when the upload has ended.
+     */
+    @Test(expected = IOException.class)
+    public void writeFailsWhenReaderClosed() throws Exception {
+        UploadPipe pipe = new UploadPipe(1024);
+        pipe.closeReader();
+
+        byte[] content = new byte[2048];
+        Arrays.fill(content, (byte) 1);
+
+        pipe.getOutputStream().write(content);
+    }
+
+    /**
+     * An aborted upload must fail the entity instead of ending it, so the server doesn't store a partial file.
+     */
+    @Test(expected = IOException.class)
+    public void entityFailsWhenWriterAborted() throws Exception {
+        UploadPipe pipe = new UploadPipe(1024);
+        pipe.getOutputStream().write(new byte[100]);
+        pipe.abortWriter();
+
+        pipe.getEntity().writeTo(new ByteArrayOutputStream());
+    }
+}
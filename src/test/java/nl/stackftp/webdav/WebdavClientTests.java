@@ -0,0 +1,234 @@
+package nl.stackftp.webdav;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WebdavClientTests {
+
+    /**
+     * The Webdav server.
+     */
+    private WebdavTestServer server;
+
+    /**
+     * The factory of the client.
+     */
+    private WebdavClientFactory factory;
+
+    /**
+     * The client.
+     */
+    private WebdavClient client;
+
+    /**
+     * Start the server and create the client.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.server = new WebdavTestServer();
+        this.factory = this.server.createFactory();
+        this.factory.init();
+        this.client = this.server.createClient(this.factory);
+    }
+
+    /**
+     * Stop the server and release the client.
+     */
+    @After
+    public void tearDown() {
+        this.client.close();
+        this.factory.destroy();
+        this.server.close();
+    }
+
+    /**
+     * Only the deepest directory is probed, its parent below a directory created by mkdirs is known to be missing.
+     * Known directories are not probed at all.
+     */
+    @Test
+    public void mkdirsProbesOnlyUnknownDirectories() throws Exception {
+        assertEquals(2, this.client.mkdirs("/a/b"));
+        this.server.takeRequests();
+
+        assertEquals(2, this.client.mkdirs("/a/b/c/d"));
+        assertEquals(Arrays.asList("PROPFIND /remote.php/webdav/a/b/c/d", "MKCOL /remote.php/webdav/a/b/c",
+                "MKCOL /remote.php/webdav/a/b/c/d"), this.server.takeRequests());
+        assertTrue(this.server.exists("/remote.php/webdav/a/b/c/d"));
+
+        assertEquals(0, this.client.mkdirs("/a/b/c"));
+        assertEquals(0, this.server.takeRequests().size());
+    }
+
+    /**
+     * When the directory is missing, its unknown parents are probed at the same time.
+     */
+    @Test
+    public void mkdirsProbesParentsConcurrently() throws Exception {
+        CountDownLatch probes = new CountDownLatch(2);
+        AtomicInteger concurrentProbes = new AtomicInteger();
+        this.server.setBeforeRequest((method, path) -> {
+            if (method.equals("PROPFIND") && (path.equals("/remote.php/webdav/a")
+                    || path.equals("/remote.php/webdav/a/b"))) {
+                probes.countDown();
+
+                try {
+                    if (probes.await(5, TimeUnit.SECONDS)) {
+                        concurrentProbes.incrementAndGet();
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertEquals(3, this.client.mkdirs("/a/b/c"));
+        assertEquals(2, concurrentProbes.get());
+        assertTrue(this.server.exists("/remote.php/webdav/a/b/c"));
+    }
+
+    /**
+     * A directory created by someone else between the probe and the MKCOL is not an error.
+     */
+    @Test
+    public void mkdirsToleratesConcurrentlyCreatedDirectory() throws Exception {
+        this.server.setBeforeRequest((method, path) -> {
+            if (method.equals("MKCOL") && path.equals("/remote.php/webdav/a")) {
+                this.server.createCollection(path);
+            }
+        });
+
+        assertEquals(1, this.client.mkdirs("/a/b"));
+        assertTrue(this.server.exists("/remote.php/webdav/a/b"));
+    }
+
+    /**
+     * A file created by someone else between the probe and the MKCOL fails the mkdirs.
+     */
+    @Test
+    public void mkdirsFailsOnConcurrentlyCreatedFile() throws Exception {
+        this.server.setBeforeRequest((method, path) -> {
+            if (method.equals("MKCOL") && path.equals("/remote.php/webdav/a")) {
+                this.server.putFile(path, new byte[1]);
+            }
+        });
+
+        try {
+            this.client.mkdirs("/a/b");
+            fail("A file in the path is not a directory");
+        } catch (IOException ex) {
+            assertEquals("/a is a file", ex.getMessage());
+        }
+    }
+
+    /**
+     * A file in the path fails the mkdirs without creating anything.
+     */
+    @Test
+    public void mkdirsFailsOnFileInPath() throws Exception {
+        this.server.putFile("/remote.php/webdav/a", new byte[1]);
+
+        try {
+            this.client.mkdirs("/a/b/c");
+            fail("A file in the path is not a directory");
+        } catch (IOException ex) {
+            assertEquals("/a is a file", ex.getMessage());
+        }
+
+        for (String request : this.server.takeRequests()) {
+            assertTrue(request, request.startsWith("PROPFIND "));
+        }
+    }
+
+    /**
+     * A known directory that was removed by someone else is forgotten and created again.
+     */
+    @Test
+    public void mkdirsRecreatesRemovedKnownDirectory() throws Exception {
+        assertEquals(2, this.client.mkdirs("/a/b"));
+        this.server.remove("/remote.php/webdav/a");
+
+        assertEquals(3, this.client.mkdirs("/a/b/c"));
+        assertTrue(this.server.exists("/remote.php/webdav/a/b/c"));
+    }
+
+    /**
+     * A chunked upload interrupted by the ftp client is resumed at an offset in the same chunk collection.
+     */
+    @Test
+    public void resumesInterruptedChunkedUpload() throws Exception {
+        ReflectionTestUtils.setField(this.factory, "uploadChunkSize", 10);
+        byte[] content = new byte[40];
+        Arrays.fill(content, (byte) 7);
+
+        OutputStream outputStream = this.client.upload("/file", 0);
+        outputStream.write(content, 0, 25);
+        ((AbortableUpload) outputStream).abort();
+        assertEquals(1, this.server.getChildren(WebdavTestServer.UPLOADS).size());
+
+        outputStream = this.client.upload("/file", 15);
+        outputStream.write(content, 15, 25);
+        outputStream.close();
+
+        assertArrayEquals(content, this.server.getFile("/remote.php/webdav/file"));
+        assertEquals(0, this.server.getChildren(WebdavTestServer.UPLOADS).size());
+    }
+
+    /**
+     * Every chunked upload has its own chunk collection, a new upload removes the chunks of the interrupted one.
+     */
+    @Test
+    public void newUploadReplacesInterruptedChunkedUpload() throws Exception {
+        ReflectionTestUtils.setField(this.factory, "uploadChunkSize", 10);
+
+        OutputStream outputStream = this.client.upload("/file", 0);
+        outputStream.write(new byte[25]);
+        ((AbortableUpload) outputStream).abort();
+        String interrupted = this.server.getChildren(WebdavTestServer.UPLOADS).get(0);
+
+        outputStream = this.client.upload("/file", 0);
+        assertEquals(1, this.server.getChildren(WebdavTestServer.UPLOADS).size());
+        assertNotEquals(interrupted, this.server.getChildren(WebdavTestServer.UPLOADS).get(0));
+
+        outputStream.write(new byte[5]);
+        outputStream.close();
+
+        assertEquals(5, this.server.getFile("/remote.php/webdav/file").length);
+    }
+
+    /**
+     * A second chunked upload of a file that is still being uploaded is refused.
+     */
+    @Test
+    public void refusesConcurrentChunkedUpload() throws Exception {
+        ReflectionTestUtils.setField(this.factory, "uploadChunkSize", 10);
+
+        OutputStream outputStream = this.client.upload("/file", 0);
+
+        try {
+            this.client.upload("/file", 0);
+            fail("The file is already being uploaded");
+        } catch (IOException ex) {
+            assertEquals("/file is already being uploaded", ex.getMessage());
+        }
+
+        outputStream.close();
+        this.client.upload("/file", 0).close();
+
+        assertEquals(0, this.server.getFile("/remote.php/webdav/file").length);
+    }
+}
@@ -0,0 +1,722 @@
+package nl.stackftp.webdav;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import nl.stackftp.ftp.StackUser;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * An in memory Webdav server with the Nextcloud urls, for tests of the Webdav client.
+ */
+class WebdavTestServer implements Closeable {
+
+    /**
+     * The user of the Webdav server.
+     */
+    static final String USER = "user";
+
+    /**
+     * The path of the files of the user.
+     */
+    static final String FILES = "/remote.php/webdav";
+
+    /**
+     * The path of the chunk collections of the user.
+     */
+    static final String UPLOADS = "/remote.php/dav/uploads/" + USER;
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads handling the requests.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * The connection pool of the clients.
+     */
+    private final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+
+    /**
+     * The resources by path.
+     */
+    private final TreeMap<String, Resource> resources = new TreeMap<>();
+
+    /**
+     * The handled requests, like "GET /remote.php/webdav/file".
+     */
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Status codes to respond once instead of handling the request, by request.
+     */
+    private final Map<String, Integer> failures = new HashMap<>();
+
+    /**
+     * Called before a request is handled, with the method and path.
+     */
+    private volatile BiConsumer<String, String> beforeRequest = (method, path) -> { };
+
+    /**
+     * Are range requests supported.
+     */
+    private volatile boolean rangesSupported = true;
+
+    /**
+     * The next etag.
+     */
+    private int nextEtag = 1;
+
+    /**
+     * The WebdavTestServer constructor.
+     * Starts the server on a free local port.
+     *
+     * @throws IOException Thrown when the server can't be started.
+     */
+    WebdavTestServer() throws IOException {
+        for (String collection : new String[]{"/", "/remote.php", FILES, "/remote.php/dav",
+                "/remote.php/dav/uploads", UPLOADS}) {
+            this.resources.put(collection, new Resource(null, null));
+        }
+
+        this.connectionManager.setDefaultMaxPerRoute(20);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * Get the base url, without trailing slash.
+     *
+     * @return The url.
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * Get the url of a path.
+     *
+     * @param path The absolute path on the server.
+     * @return The url.
+     */
+    String getUrl(String path) {
+        return this.getBaseUrl() + path;
+    }
+
+    /**
+     * Create a client for the Webdav server.
+     *
+     * @return The client.
+     */
+    StackSardine createSardine() {
+        return SardineFactory.begin(USER, "password", this.connectionManager, 5000, 5000, 1000);
+    }
+
+    /**
+     * Create a Webdav client factory for this server with small limits, the content cache disabled and the other
+     * settings at their defaults. Settings can be changed with ReflectionTestUtils before it's initialized.
+     *
+     * @return The factory, not initialized yet.
+     */
+    WebdavClientFactory createFactory() {
+        String baseUrl = this.getBaseUrl();
+        WebdavClientFactory factory = new WebdavClientFactory() {
+            @Override
+            public WebdavClient create(StackUser stackUser) {
+                return new WebdavClient(stackUser, this, baseUrl);
+            }
+        };
+
+        ReflectionTestUtils.setField(factory, "cacheTtl", 10);
+        ReflectionTestUtils.setField(factory, "cacheMaxEntries", 1000);
+        ReflectionTestUtils.setField(factory, "listingCacheMaxEntries", 1000);
+        ReflectionTestUtils.setField(factory, "uploadThreads", 4);
+        ReflectionTestUtils.setField(factory, "uploadQueue", 4);
+        ReflectionTestUtils.setField(factory, "uploadBufferSize", 65536);
+        ReflectionTestUtils.setField(factory, "uploadMemoryBudget", 1048576);
+        ReflectionTestUtils.setField(factory, "uploadChunkParallel", 3);
+        ReflectionTestUtils.setField(factory, "uploadChunkRetries", 3);
+        ReflectionTestUtils.setField(factory, "downloadSegmentSize", 8388608);
+        ReflectionTestUtils.setField(factory, "downloadSegments", 4);
+        ReflectionTestUtils.setField(factory, "downloadThreads", 4);
+        ReflectionTestUtils.setField(factory, "listParallel", 4);
+        ReflectionTestUtils.setField(factory, "asyncThreads", 4);
+        ReflectionTestUtils.setField(factory, "contentCacheDir", "");
+        ReflectionTestUtils.setField(factory, "httpMaxConnections", 20);
+        ReflectionTestUtils.setField(factory, "httpMaxConnectionsPerHost", 20);
+        ReflectionTestUtils.setField(factory, "httpConnectTimeout", 5);
+        ReflectionTestUtils.setField(factory, "httpSocketTimeout", 5);
+        ReflectionTestUtils.setField(factory, "httpKeepAlive", 5);
+
+        return factory;
+    }
+
+    /**
+     * Create the Webdav client of the user of this server.
+     *
+     * @param factory The initialized factory.
+     * @return The client.
+     */
+    WebdavClient createClient(WebdavClientFactory factory) {
+        return new StackUser(USER + "@127.0.0.1", "password", factory)
+                .getWebdavClient();
+    }
+
+    /**
+     * Store a file.
+     *
+     * @param path The absolute path on the server.
+     * @param content The file content.
+     */
+    synchronized void putFile(String path, byte[] content) {
+        this.resources.put(path, new Resource(content, this.newEtag()));
+    }
+
+    /**
+     * Create a collection.
+     *
+     * @param path The absolute path on the server.
+     */
+    synchronized void createCollection(String path) {
+        this.resources.put(path, new Resource(null, null));
+    }
+
+    /**
+     * Remove a resource and everything below it.
+     *
+     * @param path The absolute path on the server.
+     */
+    synchronized void remove(String path) {
+        this.resources.keySet().removeIf(resource -> resource.equals(path) || resource.startsWith(path + '/'));
+    }
+
+    /**
+     * Get the content of a file.
+     *
+     * @param path The absolute path on the server.
+     * @return The content or null when it isn't a file.
+     */
+    synchronized byte[] getFile(String path) {
+        Resource resource = this.resources.get(path);
+
+        return resource == null ? null : resource.content;
+    }
+
+    /**
+     * Get the etag of a file.
+     *
+     * @param path The absolute path on the server.
+     * @return The etag or null when it isn't a file.
+     */
+    synchronized String getEtag(String path) {
+        Resource resource = this.resources.get(path);
+
+        return resource == null ? null : resource.etag;
+    }
+
+    /**
+     * Does a resource exist.
+     *
+     * @param path The absolute path on the server.
+     * @return True when it exists.
+     */
+    synchronized boolean exists(String path) {
+        return this.resources.containsKey(path);
+    }
+
+    /**
+     * Get the paths of the resources directly in a collection.
+     *
+     * @param path The absolute path of the collection.
+     * @return The paths.
+     */
+    synchronized List<String> getChildren(String path) {
+        List<String> children = new ArrayList<>();
+
+        for (String resource : this.resources.tailMap(path, false).keySet()) {
+            if (!resource.startsWith(path + '/')) {
+                break;
+            }
+
+            if (resource.indexOf('/', path.length() + 1) == -1) {
+                children.add(resource);
+            }
+        }
+
+        return children;
+    }
+
+    /**
+     * Get the handled requests and forget them.
+     *
+     * @return The requests, like "GET /remote.php/webdav/file".
+     */
+    List<String> takeRequests() {
+        synchronized (this.requests) {
+            List<String> taken = new ArrayList<>(this.requests);
+            this.requests.clear();
+
+            return taken;
+        }
+    }
+
+    /**
+     * Respond once with a status code instead of handling a request.
+     *
+     * @param method The request method.
+     * @param path The absolute path on the server.
+     * @param statusCode The status code.
+     */
+    synchronized void failOnce(String method, String path, int statusCode) {
+        this.failures.put(method + ' ' + path, statusCode);
+    }
+
+    /**
+     * Set the callback called before a request is handled.
+     *
+     * @param beforeRequest The callback, with the method and path.
+     */
+    void setBeforeRequest(BiConsumer<String, String> beforeRequest) {
+        this.beforeRequest = beforeRequest;
+    }
+
+    /**
+     * Set if range requests are supported, otherwise the whole file is sent.
+     *
+     * @param rangesSupported True when supported.
+     */
+    void setRangesSupported(boolean rangesSupported) {
+        this.rangesSupported = rangesSupported;
+    }
+
+    /**
+     * Stop the server.
+     */
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.connectionManager.shutdown();
+    }
+
+    /**
+     * Handle a request.
+     *
+     * @param exchange The request and response.
+     * @throws IOException Thrown when responding failed.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = normalize(exchange.getRequestURI().getPath());
+            byte[] body = readFully(exchange.getRequestBody());
+
+            this.requests.add(method + ' ' + path);
+            this.beforeRequest.accept(method, path);
+
+            Integer failure;
+
+            synchronized (this) {
+                failure = this.failures.remove(method + ' ' + path);
+            }
+
+            if (failure != null) {
+                this.respond(exchange, failure, null);
+                return;
+            }
+
+            switch (method) {
+                case "GET":
+                    this.get(exchange, path);
+                    break;
+                case "PUT":
+                    this.respond(exchange, this.put(path, body), null);
+                    break;
+                case "MKCOL":
+                    this.respond(exchange, this.mkcol(path), null);
+                    break;
+                case "DELETE":
+                    this.respond(exchange, this.delete(path), null);
+                    break;
+                case "MOVE":
+                    this.respond(exchange, this.move(exchange, path), null);
+                    break;
+                case "PROPFIND":
+                    this.propfind(exchange, path);
+                    break;
+                default:
+                    this.respond(exchange, 405, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send a file or a range of it.
+     *
+     * @param exchange The request and response.
+     * @param path The path.
+     * @throws IOException Thrown when responding failed.
+     */
+    private void get(HttpExchange exchange, String path) throws IOException {
+        Resource resource;
+
+        synchronized (this) {
+            resource = this.resources.get(path);
+        }
+
+        if (resource == null || resource.content == null) {
+            this.respond(exchange, 404, null);
+            return;
+        }
+
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+
+        if (ifMatch != null && !ifMatch.equals(resource.etag)) {
+            this.respond(exchange, 412, null);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("ETag", resource.etag);
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        byte[] content = resource.content;
+
+        if (range == null || !this.rangesSupported) {
+            this.respond(exchange, 200, content);
+            return;
+        }
+
+        String[] bounds = range.substring("bytes=".length()).split("-", -1);
+        int start = Integer.parseInt(bounds[0]);
+        int end = bounds[1].isEmpty() ? content.length - 1 : Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+
+        if (start >= content.length) {
+            this.respond(exchange, 416, null);
+            return;
+        }
+
+        byte[] part = new byte[end - start + 1];
+        System.arraycopy(content, start, part, 0, part.length);
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        this.respond(exchange, 206, part);
+    }
+
+    /**
+     * Store a file.
+     *
+     * @param path The path.
+     * @param body The file content.
+     * @return The status code.
+     */
+    private synchronized int put(String path, byte[] body) {
+        Resource parent = this.resources.get(parentOf(path));
+        Resource resource = this.resources.get(path);
+
+        if (parent == null || parent.content != null) {
+            return 409;
+        }
+
+        if (resource != null && resource.content == null) {
+            return 405;
+        }
+
+        this.resources.put(path, new Resource(body, this.newEtag()));
+
+        return resource == null ? 201 : 204;
+    }
+
+    /**
+     * Create a collection.
+     *
+     * @param path The path.
+     * @return The status code.
+     */
+    private synchronized int mkcol(String path) {
+        Resource parent = this.resources.get(parentOf(path));
+
+        if (this.resources.containsKey(path)) {
+            return 405;
+        }
+
+        if (parent == null || parent.content != null) {
+            return 409;
+        }
+
+        this.resources.put(path, new Resource(null, null));
+
+        return 201;
+    }
+
+    /**
+     * Remove a resource and everything below it.
+     *
+     * @param path The path.
+     * @return The status code.
+     */
+    private synchronized int delete(String path) {
+        if (!this.resources.containsKey(path)) {
+            return 404;
+        }
+
+        this.remove(path);
+
+        return 204;
+    }
+
+    /**
+     * Move a resource, or assemble the chunks of a chunked upload when the source is the .file of a chunk
+     * collection.
+     *
+     * @param exchange The request and response.
+     * @param path The path.
+     * @return The status code.
+     */
+    private synchronized int move(HttpExchange exchange, String path) {
+        String destination = normalize(URI.create(exchange.getRequestHeaders().getFirst("Destination")).getPath());
+        Resource parent = this.resources.get(parentOf(destination));
+
+        if (parent == null || parent.content != null) {
+            return 409;
+        }
+
+        if (path.endsWith("/.file")) {
+            String chunks = parentOf(path);
+
+            if (!this.resources.containsKey(chunks)) {
+                return 404;
+            }
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+            for (String chunk : this.getChildren(chunks)) {
+                byte[] bytes = this.resources.get(chunk).content;
+                content.write(bytes, 0, bytes.length);
+            }
+
+            String totalLength = exchange.getRequestHeaders().getFirst("OC-Total-Length");
+
+            if (totalLength != null && Long.parseLong(totalLength) != content.size()) {
+                return 400;
+            }
+
+            boolean existed = this.resources.containsKey(destination);
+            this.remove(chunks);
+            this.resources.put(destination, new Resource(content.toByteArray(), this.newEtag()));
+
+            return existed ? 204 : 201;
+        }
+
+        if (!this.resources.containsKey(path)) {
+            return 404;
+        }
+
+        boolean existed = this.resources.containsKey(destination);
+        this.remove(destination);
+
+        for (Map.Entry<String, Resource> entry : new ArrayList<>(this.resources.tailMap(path, true).entrySet())) {
+            if (entry.getKey().equals(path) || entry.getKey().startsWith(path + '/')) {
+                this.resources.remove(entry.getKey());
+                this.resources.put(destination + entry.getKey().substring(path.length()), entry.getValue());
+            }
+        }
+
+        return existed ? 204 : 201;
+    }
+
+    /**
+     * Send the properties of a resource and, with Depth: 1, of its children.
+     *
+     * @param exchange The request and response.
+     * @param path The path.
+     * @throws IOException Thrown when responding failed.
+     */
+    private void propfind(HttpExchange exchange, String path) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>"
+                + "<d:multistatus xmlns:d=\"DAV:\">");
+
+        synchronized (this) {
+            Resource resource = this.resources.get(path);
+
+            if (resource == null) {
+                this.respond(exchange, 404, null);
+                return;
+            }
+
+            if ("infinity".equals(exchange.getRequestHeaders().getFirst("Depth"))) {
+                this.respond(exchange, 403, null);
+                return;
+            }
+
+            appendResponse(xml, path, resource);
+
+            if ("1".equals(exchange.getRequestHeaders().getFirst("Depth"))) {
+                for (String child : this.getChildren(path)) {
+                    appendResponse(xml, child, this.resources.get(child));
+                }
+            }
+        }
+
+        xml.append("</d:multistatus>");
+        exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+        this.respond(exchange, 207, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send a response.
+     *
+     * @param exchange The request and response.
+     * @param statusCode The status code.
+     * @param body The body or null.
+     * @throws IOException Thrown when responding failed.
+     */
+    private void respond(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(statusCode, body.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    /**
+     * Create a new etag.
+     *
+     * @return The etag.
+     */
+    private synchronized String newEtag() {
+        return "\"etag-" + this.nextEtag++ + "\"";
+    }
+
+    /**
+     * Append the response of a resource to a multistatus.
+     *
+     * @param xml The multistatus.
+     * @param path The path.
+     * @param resource The resource.
+     */
+    private static void appendResponse(StringBuilder xml, String path, Resource resource) {
+        xml.append("<d:response><d:href>").append(PathCodec.encodePath(path))
+                .append(resource.content == null && !path.equals("/") ? "/" : "")
+                .append("</d:href><d:propstat><d:prop>");
+
+        if (resource.content == null) {
+            xml.append("<d:resourcetype><d:collection/></d:resourcetype>");
+        } else {
+            xml.append("<d:resourcetype/><d:getcontentlength>").append(resource.content.length)
+                    .append("</d:getcontentlength><d:getetag>").append(resource.etag.replace("\"", "&quot;"))
+                    .append("</d:getetag>");
+        }
+
+        xml.append("<d:getlastmodified>Mon, 02 Oct 2017 10:00:00 GMT</d:getlastmodified>")
+                .append("</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>");
+    }
+
+    /**
+     * Get the path of a request without trailing slash. The files of the user in the dav endpoint are the same
+     * as in the webdav endpoint.
+     *
+     * @param path The decoded request path.
+     * @return The normalized path.
+     */
+    private static String normalize(String path) {
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        String davFiles = "/remote.php/dav/files/" + USER;
+
+        if (path.equals(davFiles) || path.startsWith(davFiles + '/')) {
+            path = FILES + path.substring(davFiles.length());
+        }
+
+        return path;
+    }
+
+    /**
+     * Get the parent of a path.
+     *
+     * @param path The path.
+     * @return The parent path.
+     */
+    private static String parentOf(String path) {
+        int separatorIndex = path.lastIndexOf('/');
+
+        return separatorIndex <= 0 ? "/" : path.substring(0, separatorIndex);
+    }
+
+    /**
+     * Read a stream to the end.
+     *
+     * @param inputStream The stream.
+     * @return The bytes.
+     * @throws IOException Thrown when reading failed.
+     */
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A file or collection.
+     */
+    private static final class Resource {
+
+        /**
+         * The file content, null for a collection.
+         */
+        private final byte[] content;
+
+        /**
+         * The etag, null for a collection.
+         */
+        private final String etag;
+
+        /**
+         * The Resource constructor.
+         *
+         * @param content The file content, null for a collection.
+         * @param etag The etag, null for a collection.
+         */
+        private Resource(byte[] content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+    }
+}